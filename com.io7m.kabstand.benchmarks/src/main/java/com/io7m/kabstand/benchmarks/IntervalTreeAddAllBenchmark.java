@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.benchmarks;
+
+import com.io7m.kabstand.core.IntervalL;
+import com.io7m.kabstand.core.IntervalTree;
+import com.io7m.kabstand.core.IntervalTreeDebuggableType;
+import com.io7m.kabstand.core.IntervalType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the time taken to add a batch of new intervals to an existing
+ * generic tree, either with a single {@code addAll} call or by inserting
+ * the intervals individually. The ratio of the batch size to the tree
+ * size determines whether {@code addAll} inserts or rebuilds.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntervalTreeAddAllBenchmark
+{
+  @Param({"65536", "1048576"})
+  public int size;
+
+  @Param({"1024", "16384", "131072"})
+  public int batchSize;
+
+  private List<IntervalType<Long>> existing;
+  private List<IntervalType<Long>> batch;
+  private IntervalTreeDebuggableType<Long> tree;
+
+  /**
+   * Construct a benchmark.
+   */
+
+  public IntervalTreeAddAllBenchmark()
+  {
+
+  }
+
+  /**
+   * Generate the existing intervals and the batch.
+   */
+
+  @Setup(Level.Trial)
+  public void setupTrial()
+  {
+    final var random = new Random(0x6b616273L);
+
+    /*
+     * The tree holds intervals with even lower bounds, and the batch
+     * holds intervals with odd lower bounds in a random order.
+     */
+
+    this.existing = new ArrayList<>(this.size);
+    for (int index = 0; index < this.size; ++index) {
+      final long lower = (long) index * 2L;
+      this.existing.add(new IntervalL(lower, lower + random.nextInt(1000)));
+    }
+
+    this.batch = new ArrayList<>(this.batchSize);
+    for (int index = 0; index < this.batchSize; ++index) {
+      final long lower = (long) random.nextInt(this.size) * 2L + 1L;
+      this.batch.add(new IntervalL(lower, lower + random.nextInt(1000)));
+    }
+    Collections.shuffle(this.batch, random);
+  }
+
+  /**
+   * Create a fresh tree holding the existing intervals.
+   */
+
+  @Setup(Level.Invocation)
+  public void setupInvocation()
+  {
+    this.tree = IntervalTree.fromSorted(this.existing);
+  }
+
+  /**
+   * Add the batch with a single call.
+   *
+   * @return The tree size
+   */
+
+  @Benchmark
+  public int addAll()
+  {
+    this.tree.addAll(this.batch);
+    return this.tree.size();
+  }
+
+  /**
+   * Add the batch one interval at a time.
+   *
+   * @return The tree size
+   */
+
+  @Benchmark
+  public int addIndividually()
+  {
+    for (final var interval : this.batch) {
+      this.tree.add(interval);
+    }
+    return this.tree.size();
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.benchmarks;
+
+import com.io7m.kabstand.core.IntervalL;
+import com.io7m.kabstand.core.IntervalTree;
+import com.io7m.kabstand.core.IntervalTreeType;
+import com.io7m.kabstand.core.IntervalType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare evaluating a large batch of overlap queries with
+ * {@code overlappingBatch()} against calling {@code overlapping()} for each
+ * query in turn. The batch is evaluated on a pool with the given
+ * parallelism.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntervalTreeBatchQueryBenchmark
+{
+  @Param({"1048576"})
+  public int size;
+
+  @Param({"100000"})
+  public int queryCount;
+
+  @Param({"1", "2", "4"})
+  public int parallelism;
+
+  private IntervalTreeType<Long> tree;
+  private List<IntervalType<Long>> queries;
+  private ForkJoinPool pool;
+
+  /**
+   * Construct a benchmark.
+   */
+
+  public IntervalTreeBatchQueryBenchmark()
+  {
+
+  }
+
+  /**
+   * Populate the tree, generate the queries, and create the pool.
+   */
+
+  @Setup
+  public void setup()
+  {
+    final var random = new Random(0x6b616273L);
+    final var range = (long) this.size * 100L;
+
+    this.tree = IntervalTree.empty();
+    while (this.tree.size() < this.size) {
+      final var lower = (long) random.nextInt((int) range);
+      this.tree.insert(new IntervalL(lower, lower + random.nextInt(1000)));
+    }
+
+    this.queries = new ArrayList<>(this.queryCount);
+    for (int index = 0; index < this.queryCount; ++index) {
+      final var lower = (long) random.nextInt((int) range);
+      this.queries.add(new IntervalL(lower, lower + random.nextInt(100)));
+    }
+
+    this.pool = new ForkJoinPool(this.parallelism);
+  }
+
+  /**
+   * Shut down the pool.
+   */
+
+  @TearDown
+  public void tearDown()
+  {
+    this.pool.shutdown();
+  }
+
+  /**
+   * Evaluate each query in turn.
+   *
+   * @return The results
+   */
+
+  @Benchmark
+  public List<Collection<IntervalType<Long>>> loop()
+  {
+    final var results =
+      new ArrayList<Collection<IntervalType<Long>>>(this.queries.size());
+    for (final var query : this.queries) {
+      results.add(this.tree.overlapping(query));
+    }
+    return results;
+  }
+
+  /**
+   * Evaluate the queries as a batch.
+   *
+   * @return The results
+   */
+
+  @Benchmark
+  public List<Collection<IntervalType<Long>>> batch()
+  {
+    return this.tree.overlappingBatch(this.queries, this.pool);
+  }
+}
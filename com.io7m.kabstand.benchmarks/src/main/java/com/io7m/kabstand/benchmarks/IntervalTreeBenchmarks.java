@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.benchmarks;
+
+import com.io7m.kabstand.core.IntervalTree;
+import com.io7m.kabstand.core.IntervalTreeLong;
+import com.io7m.kabstand.core.IntervalTreeLongPacked;
+import com.io7m.kabstand.core.IntervalTreeType;
+
+/**
+ * Functions shared between benchmarks.
+ */
+
+final class IntervalTreeBenchmarks
+{
+  private IntervalTreeBenchmarks()
+  {
+
+  }
+
+  /**
+   * Create an empty tree.
+   *
+   * @param implementation The implementation name
+   *
+   * @return An empty tree
+   */
+
+  static IntervalTreeType<Long> createTree(
+    final String implementation)
+  {
+    switch (implementation) {
+      case "generic":
+        return IntervalTree.empty();
+      case "long":
+        return IntervalTreeLong.empty();
+      case "packed":
+        return IntervalTreeLongPacked.onHeap();
+      default:
+        throw new IllegalArgumentException(implementation);
+    }
+  }
+}
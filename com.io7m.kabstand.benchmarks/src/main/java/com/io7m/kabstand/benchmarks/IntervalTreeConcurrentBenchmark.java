@@ -0,0 +1,255 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.benchmarks;
+
+import com.io7m.kabstand.core.IntervalL;
+import com.io7m.kabstand.core.IntervalTree;
+import com.io7m.kabstand.core.IntervalTreeAtomic;
+import com.io7m.kabstand.core.IntervalTreeConcurrent;
+import com.io7m.kabstand.core.IntervalTreeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measure the scaling of a mixed read/write workload on a shared tree as
+ * the number of threads increases. Each operation is either a write (an
+ * insert followed by a remove, leaving the size of the tree unchanged) or
+ * an overlap query, chosen at random according to the write percentage.
+ * The "concurrent" implementation is an {@link IntervalTreeConcurrent},
+ * the "atomic" implementation is an {@link IntervalTreeAtomic}, and the
+ * "synchronized" implementation is a generic tree accessed entirely within
+ * {@code synchronized} blocks, as a baseline.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntervalTreeConcurrentBenchmark
+{
+  private static final int QUERY_COUNT = 1 << 16;
+
+  @Param({"concurrent", "atomic", "synchronized"})
+  public String implementation;
+
+  @Param({"65536"})
+  public int size;
+
+  @Param({"0", "1", "10"})
+  public int writePercent;
+
+  private IntervalTreeType<Long> tree;
+  private boolean synchronize;
+  private IntervalL[] queries;
+  private final AtomicLong seeds = new AtomicLong(0x6b616273L);
+
+  /**
+   * Construct a benchmark.
+   */
+
+  public IntervalTreeConcurrentBenchmark()
+  {
+
+  }
+
+  /**
+   * The state held by each benchmark thread.
+   */
+
+  @State(Scope.Thread)
+  public static class ThreadState
+  {
+    private Random random;
+    private int index;
+
+    /**
+     * Construct thread state.
+     */
+
+    public ThreadState()
+    {
+
+    }
+
+    /**
+     * Set up the thread state.
+     *
+     * @param benchmark The benchmark
+     */
+
+    @Setup
+    public void setup(
+      final IntervalTreeConcurrentBenchmark benchmark)
+    {
+      this.random = new Random(benchmark.seeds.getAndIncrement());
+      this.index = this.random.nextInt(QUERY_COUNT);
+    }
+  }
+
+  /**
+   * Populate the tree and generate the queries.
+   */
+
+  @Setup
+  public void setup()
+  {
+    final var random = new Random(0x6b616273L);
+
+    /*
+     * The tree holds intervals with even lower bounds, and the writes
+     * use intervals with odd lower bounds.
+     */
+
+    final IntervalTreeType<Long> base = IntervalTree.empty();
+    for (int index = 0; index < this.size; ++index) {
+      final long lower = (long) index * 2L;
+      base.insert(new IntervalL(lower, lower + random.nextInt(1000)));
+    }
+
+    switch (this.implementation) {
+      case "concurrent":
+        this.tree = IntervalTreeConcurrent.wrap(base);
+        this.synchronize = false;
+        break;
+      case "atomic":
+        this.tree = IntervalTreeAtomic.empty();
+        this.tree.addAll(base);
+        this.synchronize = false;
+        break;
+      case "synchronized":
+        this.tree = base;
+        this.synchronize = true;
+        break;
+      default:
+        throw new IllegalArgumentException(this.implementation);
+    }
+
+    this.queries = new IntervalL[QUERY_COUNT];
+    for (int index = 0; index < QUERY_COUNT; ++index) {
+      final long lower = (long) random.nextInt(this.size) * 2L + 1L;
+      this.queries[index] =
+        new IntervalL(lower, lower + random.nextInt(100));
+    }
+  }
+
+  private int operation(
+    final ThreadState state)
+  {
+    final var interval = this.queries[state.index];
+    state.index = (state.index + 1) & (QUERY_COUNT - 1);
+
+    final boolean write = state.random.nextInt(100) < this.writePercent;
+    if (this.synchronize) {
+      synchronized (this.tree) {
+        return this.apply(interval, write);
+      }
+    }
+    return this.apply(interval, write);
+  }
+
+  private int apply(
+    final IntervalL interval,
+    final boolean write)
+  {
+    if (write) {
+      this.tree.insert(interval);
+      return this.tree.remove(interval) ? 1 : 0;
+    }
+    return this.tree.overlapping(interval).size();
+  }
+
+  /**
+   * Run the workload on one thread.
+   *
+   * @param state The thread state
+   *
+   * @return The result of the operation
+   */
+
+  @Benchmark
+  @Threads(1)
+  public int threads1(
+    final ThreadState state)
+  {
+    return this.operation(state);
+  }
+
+  /**
+   * Run the workload on two threads.
+   *
+   * @param state The thread state
+   *
+   * @return The result of the operation
+   */
+
+  @Benchmark
+  @Threads(2)
+  public int threads2(
+    final ThreadState state)
+  {
+    return this.operation(state);
+  }
+
+  /**
+   * Run the workload on four threads.
+   *
+   * @param state The thread state
+   *
+   * @return The result of the operation
+   */
+
+  @Benchmark
+  @Threads(4)
+  public int threads4(
+    final ThreadState state)
+  {
+    return this.operation(state);
+  }
+
+  /**
+   * Run the workload on one thread per available processor.
+   *
+   * @param state The thread state
+   *
+   * @return The result of the operation
+   */
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public int threadsMax(
+    final ThreadState state)
+  {
+    return this.operation(state);
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.benchmarks;
+
+import com.io7m.kabstand.core.IntervalL;
+import com.io7m.kabstand.core.IntervalTreeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the throughput of idempotent inserts, a configurable fraction of
+ * which are duplicates of intervals already present in the tree. Each
+ * insert that succeeds is immediately undone so that the tree stays the
+ * same size for the duration of the benchmark. The generic tree stopped
+ * reporting duplicates with exceptions when its insertion and removal
+ * became iterative, and so its baseline is the tree before that change.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntervalTreeDuplicateInsertBenchmark
+{
+  private static final int QUERY_COUNT = 1 << 16;
+
+  @Param({"generic", "long", "packed"})
+  public String implementation;
+
+  @Param({"1024", "65536"})
+  public int size;
+
+  @Param({"0.0", "0.3", "1.0"})
+  public double duplicateFraction;
+
+  private IntervalTreeType<Long> tree;
+  private IntervalL[] queries;
+  private int index;
+
+  /**
+   * Construct a benchmark.
+   */
+
+  public IntervalTreeDuplicateInsertBenchmark()
+  {
+
+  }
+
+  /**
+   * Populate the tree and generate the queries.
+   */
+
+  @Setup
+  public void setup()
+  {
+    final var random = new Random(0x6b616273L);
+
+    /*
+     * The tree holds intervals with even lower bounds. Fresh intervals
+     * are given odd lower bounds, and so are never already present.
+     */
+
+    final var present = new IntervalL[this.size];
+    this.tree = IntervalTreeBenchmarks.createTree(this.implementation);
+    for (int index = 0; index < this.size; ++index) {
+      final long lower = (long) index * 2L;
+      final var interval =
+        new IntervalL(lower, lower + random.nextInt(1000));
+      present[index] = interval;
+      this.tree.insert(interval);
+    }
+
+    this.queries = new IntervalL[QUERY_COUNT];
+    for (int index = 0; index < QUERY_COUNT; ++index) {
+      if (random.nextDouble() < this.duplicateFraction) {
+        this.queries[index] = present[random.nextInt(this.size)];
+      } else {
+        final long lower = (long) random.nextInt(this.size) * 2L + 1L;
+        this.queries[index] =
+          new IntervalL(lower, lower + random.nextInt(1000));
+      }
+    }
+    this.index = 0;
+  }
+
+  /**
+   * Insert the next query interval, undoing the insertion if it succeeded.
+   *
+   * @return {@code true} if the interval was inserted
+   */
+
+  @Benchmark
+  public boolean insertRetrying()
+  {
+    final var interval = this.queries[this.index];
+    this.index = (this.index + 1) & (QUERY_COUNT - 1);
+
+    final var inserted = this.tree.insert(interval);
+    if (inserted) {
+      this.tree.remove(interval);
+    }
+    return inserted;
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.benchmarks;
+
+import com.io7m.kabstand.core.IntervalL;
+import com.io7m.kabstand.core.IntervalTree;
+import com.io7m.kabstand.core.IntervalTreeDebuggableType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the throughput of inserts and removes on a generic tree with
+ * internal validation disabled (as it would be in production). Each
+ * operation inserts an interval that is not present in the tree, and
+ * then removes it again, so the tree stays the same size for the duration
+ * of the benchmark.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntervalTreeInsertRemoveBenchmark
+{
+  private static final int QUERY_COUNT = 1 << 16;
+
+  @Param({"1024", "65536"})
+  public int size;
+
+  private IntervalTreeDebuggableType<Long> tree;
+  private IntervalL[] queries;
+  private int index;
+
+  /**
+   * Construct a benchmark.
+   */
+
+  public IntervalTreeInsertRemoveBenchmark()
+  {
+
+  }
+
+  /**
+   * Populate the tree and generate the queries.
+   */
+
+  @Setup
+  public void setup()
+  {
+    final var random = new Random(0x6b616273L);
+
+    /*
+     * The tree holds intervals with even lower bounds, and the queries
+     * have odd lower bounds.
+     */
+
+    this.tree = IntervalTree.empty();
+    this.tree.enableInternalValidation(false);
+    for (int index = 0; index < this.size; ++index) {
+      final long lower = (long) index * 2L;
+      this.tree.insert(new IntervalL(lower, lower + random.nextInt(1000)));
+    }
+
+    this.queries = new IntervalL[QUERY_COUNT];
+    for (int index = 0; index < QUERY_COUNT; ++index) {
+      final long lower = (long) random.nextInt(this.size) * 2L + 1L;
+      this.queries[index] =
+        new IntervalL(lower, lower + random.nextInt(1000));
+    }
+    this.index = 0;
+  }
+
+  /**
+   * Insert the next query interval, and then remove it.
+   *
+   * @return {@code true} if the interval was removed
+   */
+
+  @Benchmark
+  public boolean insertRemove()
+  {
+    final var interval = this.queries[this.index];
+    this.index = (this.index + 1) & (QUERY_COUNT - 1);
+
+    this.tree.insert(interval);
+    return this.tree.remove(interval);
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.benchmarks;
+
+import com.io7m.kabstand.core.IntervalL;
+import com.io7m.kabstand.core.IntervalTree;
+import com.io7m.kabstand.core.IntervalTreeConcurrent;
+import com.io7m.kabstand.core.IntervalTreeSharded;
+import com.io7m.kabstand.core.IntervalTreeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measure the scaling of an insert-heavy workload on a shared index as the
+ * number of threads increases. Each operation inserts an interval and then
+ * removes it again, leaving the size of the index unchanged. The "sharded"
+ * implementation is an {@link IntervalTreeSharded} with evenly spaced
+ * boundaries, and the "concurrent" implementation is an
+ * {@link IntervalTreeConcurrent}, which admits a single writer at a time.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntervalTreeShardedBenchmark
+{
+  private static final int WRITE_COUNT = 1 << 16;
+
+  @Param({"sharded", "concurrent"})
+  public String implementation;
+
+  @Param({"65536"})
+  public int size;
+
+  @Param({"16"})
+  public int shards;
+
+  private IntervalTreeType<Long> tree;
+  private IntervalL[] writes;
+  private final AtomicLong seeds = new AtomicLong(0x6b616273L);
+
+  /**
+   * Construct a benchmark.
+   */
+
+  public IntervalTreeShardedBenchmark()
+  {
+
+  }
+
+  /**
+   * The state held by each benchmark thread.
+   */
+
+  @State(Scope.Thread)
+  public static class ThreadState
+  {
+    private int index;
+
+    /**
+     * Construct thread state.
+     */
+
+    public ThreadState()
+    {
+
+    }
+
+    /**
+     * Set up the thread state.
+     *
+     * @param benchmark The benchmark
+     */
+
+    @Setup
+    public void setup(
+      final IntervalTreeShardedBenchmark benchmark)
+    {
+      final var random = new Random(benchmark.seeds.getAndIncrement());
+      this.index = random.nextInt(WRITE_COUNT);
+    }
+  }
+
+  /**
+   * Populate the index and generate the writes.
+   */
+
+  @Setup
+  public void setup()
+  {
+    final var random = new Random(0x6b616273L);
+
+    switch (this.implementation) {
+      case "sharded": {
+        final var boundaries = new ArrayList<Long>();
+        final long span = (long) this.size * 2L;
+        for (int index = 1; index < this.shards; ++index) {
+          boundaries.add(span * index / this.shards);
+        }
+        this.tree = IntervalTreeSharded.create(boundaries);
+        break;
+      }
+      case "concurrent":
+        this.tree = IntervalTreeConcurrent.wrap(IntervalTree.<Long>empty());
+        break;
+      default:
+        throw new IllegalArgumentException(this.implementation);
+    }
+
+    /*
+     * The index holds intervals with even lower bounds, and the writes
+     * use intervals with odd lower bounds.
+     */
+
+    for (int index = 0; index < this.size; ++index) {
+      final long lower = (long) index * 2L;
+      this.tree.insert(new IntervalL(lower, lower + random.nextInt(1000)));
+    }
+
+    this.writes = new IntervalL[WRITE_COUNT];
+    for (int index = 0; index < WRITE_COUNT; ++index) {
+      final long lower = (long) random.nextInt(this.size) * 2L + 1L;
+      this.writes[index] =
+        new IntervalL(lower, lower + random.nextInt(1000));
+    }
+  }
+
+  private boolean operation(
+    final ThreadState state)
+  {
+    final var interval = this.writes[state.index];
+    state.index = (state.index + 1) & (WRITE_COUNT - 1);
+    this.tree.insert(interval);
+    return this.tree.remove(interval);
+  }
+
+  /**
+   * Run the workload on one thread.
+   *
+   * @param state The thread state
+   *
+   * @return The result of the operation
+   */
+
+  @Benchmark
+  @Threads(1)
+  public boolean threads1(
+    final ThreadState state)
+  {
+    return this.operation(state);
+  }
+
+  /**
+   * Run the workload on two threads.
+   *
+   * @param state The thread state
+   *
+   * @return The result of the operation
+   */
+
+  @Benchmark
+  @Threads(2)
+  public boolean threads2(
+    final ThreadState state)
+  {
+    return this.operation(state);
+  }
+
+  /**
+   * Run the workload on four threads.
+   *
+   * @param state The thread state
+   *
+   * @return The result of the operation
+   */
+
+  @Benchmark
+  @Threads(4)
+  public boolean threads4(
+    final ThreadState state)
+  {
+    return this.operation(state);
+  }
+
+  /**
+   * Run the workload on one thread per available processor.
+   *
+   * @param state The thread state
+   *
+   * @return The result of the operation
+   */
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public boolean threadsMax(
+    final ThreadState state)
+  {
+    return this.operation(state);
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.benchmarks;
+
+import com.io7m.kabstand.core.IntervalL;
+import com.io7m.kabstand.core.IntervalTreeType;
+import com.io7m.kabstand.core.IntervalType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare point stabbing queries against overlap queries with degenerate
+ * {@code [p, p]} intervals.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntervalTreeStabbingBenchmark
+{
+  private static final int QUERY_COUNT = 1 << 16;
+
+  @Param({"generic", "long", "packed"})
+  public String implementation;
+
+  @Param({"1024", "65536"})
+  public int size;
+
+  private IntervalTreeType<Long> tree;
+  private long[] points;
+  private int index;
+
+  /**
+   * Construct a benchmark.
+   */
+
+  public IntervalTreeStabbingBenchmark()
+  {
+
+  }
+
+  /**
+   * Populate the tree and generate the query points.
+   */
+
+  @Setup
+  public void setup()
+  {
+    final var random = new Random(0x6b616273L);
+    final var range = (long) this.size * 100L;
+
+    this.tree = IntervalTreeBenchmarks.createTree(this.implementation);
+    while (this.tree.size() < this.size) {
+      final var lower = (long) random.nextInt((int) range);
+      this.tree.insert(new IntervalL(lower, lower + random.nextInt(1000)));
+    }
+
+    this.points = new long[QUERY_COUNT];
+    for (int index = 0; index < QUERY_COUNT; ++index) {
+      this.points[index] = random.nextInt((int) range);
+    }
+    this.index = 0;
+  }
+
+  private long nextPoint()
+  {
+    final var point = this.points[this.index];
+    this.index = (this.index + 1) & (QUERY_COUNT - 1);
+    return point;
+  }
+
+  /**
+   * Query the intervals containing the next point.
+   *
+   * @return The intervals
+   */
+
+  @Benchmark
+  public Collection<IntervalType<Long>> stabbing()
+  {
+    return this.tree.stabbing(this.nextPoint());
+  }
+
+  /**
+   * Query the intervals overlapping a degenerate interval at the next point.
+   *
+   * @return The intervals
+   */
+
+  @Benchmark
+  public Collection<IntervalType<Long>> overlappingDegenerate()
+  {
+    final var point = this.nextPoint();
+    return this.tree.overlapping(new IntervalL(point, point));
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.benchmarks;
+
+import com.io7m.kabstand.core.IntervalL;
+import com.io7m.kabstand.core.IntervalTree;
+import com.io7m.kabstand.core.IntervalTreeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+/**
+ * Compare streams over a tree using the tree's own spliterator against
+ * streams using the iterator-based spliterator that collections inherit by
+ * default. Each stream sums a function of every interval in the tree.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntervalTreeStreamBenchmark
+{
+  @Param({"1048576"})
+  public int size;
+
+  private IntervalTreeType<Long> tree;
+
+  /**
+   * Construct a benchmark.
+   */
+
+  public IntervalTreeStreamBenchmark()
+  {
+
+  }
+
+  /**
+   * Populate the tree.
+   */
+
+  @Setup
+  public void setup()
+  {
+    final var intervals = new ArrayList<IntervalL>(this.size);
+    for (int index = 0; index < this.size; ++index) {
+      final long lower = (long) index * 2L;
+      intervals.add(new IntervalL(lower, lower + (index % 1000)));
+    }
+    this.tree = IntervalTree.fromSorted(intervals);
+  }
+
+  /**
+   * Sum the intervals with a sequential stream.
+   *
+   * @return The sum
+   */
+
+  @Benchmark
+  public long sequential()
+  {
+    return this.tree.stream()
+      .mapToLong(x -> x.upper() - x.lower())
+      .sum();
+  }
+
+  /**
+   * Sum the intervals with a parallel stream using the tree's spliterator.
+   *
+   * @return The sum
+   */
+
+  @Benchmark
+  public long parallel()
+  {
+    return this.tree.parallelStream()
+      .mapToLong(x -> x.upper() - x.lower())
+      .sum();
+  }
+
+  /**
+   * Sum the intervals with a parallel stream using the default
+   * iterator-based spliterator.
+   *
+   * @return The sum
+   */
+
+  @Benchmark
+  public long parallelIterator()
+  {
+    final var spliterator = Spliterators.spliterator(this.tree, 0);
+    return StreamSupport.stream(spliterator, true)
+      .mapToLong(x -> x.upper() - x.lower())
+      .sum();
+  }
+}
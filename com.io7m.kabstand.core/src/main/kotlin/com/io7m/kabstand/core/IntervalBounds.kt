@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.core
+
+/**
+ * Comparisons between bounds, used by the generic trees to prune their
+ * searches. Pruning must agree with [IntervalType.overlaps], which for
+ * floating-point intervals compares bounds numerically (IEEE 754): under
+ * that comparison `-0.0` and `0.0` are equal, whereas [Comparable.compareTo]
+ * orders `-0.0` before `0.0`. Floating-point bounds are therefore compared
+ * numerically, and all other bounds with [Comparable.compareTo].
+ *
+ * For bounds that are not NaN, the numeric order is a coarsening of the
+ * [Comparable.compareTo] order used to arrange the trees, and so the set of
+ * nodes selected by any of these comparisons against a fixed bound is still
+ * a contiguous range of ranks.
+ */
+
+internal object IntervalBounds {
+
+  /**
+   * @return A negative value, zero, or a positive value if `x` is less
+   * than, equal to, or greater than `y`
+   */
+
+  fun <S : Comparable<S>> compare(
+    x : S,
+    y : S
+  ) : Int {
+    if (x is Double && y is Double) {
+      return compareNumeric(x, y)
+    }
+    if (x is Float && y is Float) {
+      return compareNumeric(x.toDouble(), y.toDouble())
+    }
+    return x.compareTo(y)
+  }
+
+  private fun compareNumeric(
+    x : Double,
+    y : Double
+  ) : Int {
+    return when {
+      x < y -> -1
+      x > y -> 1
+      else  -> 0
+    }
+  }
+
+  /**
+   * @return `true` if `x >= y`
+   */
+
+  fun <S : Comparable<S>> atLeast(
+    x : S,
+    y : S
+  ) : Boolean {
+    return compare(x, y) >= 0
+  }
+
+  /**
+   * @return `true` if `x > y`
+   */
+
+  fun <S : Comparable<S>> greaterThan(
+    x : S,
+    y : S
+  ) : Boolean {
+    return compare(x, y) > 0
+  }
+
+  /**
+   * @return `true` if `x <= y`
+   */
+
+  fun <S : Comparable<S>> atMost(
+    x : S,
+    y : S
+  ) : Boolean {
+    return compare(x, y) <= 0
+  }
+
+  /**
+   * @return `true` if `x < y`
+   */
+
+  fun <S : Comparable<S>> lessThan(
+    x : S,
+    y : S
+  ) : Boolean {
+    return compare(x, y) < 0
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.core
+
+/**
+ * A visitor of intervals with `double` bounds. Visitors receive the bounds of
+ * each interval directly, and so no interval values need to be allocated
+ * in order to visit them.
+ */
+
+fun interface IntervalDoubleVisitorType {
+
+  /**
+   * Visit an interval.
+   *
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return `true` if visiting should continue
+   */
+
+  fun visit(
+    lower : Double,
+    upper : Double
+  ) : Boolean
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.core
+
+import com.io7m.kabstand.core.IntervalLongNodeStoreType.Companion.NIL
+
+/**
+ * A node store that keeps each node field in its own primitive array.
+ * Released nodes are kept on a free list threaded through the array of
+ * left children, and are reused before the arrays are grown.
+ *
+ * @param initialCapacity The initial number of nodes that can be held
+ */
+
+internal class IntervalLongNodeStoreArrays(
+  initialCapacity : Int
+) : IntervalLongNodeStoreType {
+
+  private var lowers : LongArray
+  private var uppers : LongArray
+  private var maximums : LongArray
+  private var lefts : IntArray
+  private var rights : IntArray
+  private var heights : IntArray
+  private var sizes : IntArray
+
+  /*
+   * The number of slots that have ever been handed out. Slots at indices
+   * `>= used` have never been allocated.
+   */
+
+  private var used : Int
+
+  /*
+   * The head of the list of released slots.
+   */
+
+  private var freeHead : Int
+
+  init {
+    require(initialCapacity > 0) {
+      "Initial capacity $initialCapacity must be positive"
+    }
+
+    this.lowers = LongArray(initialCapacity)
+    this.uppers = LongArray(initialCapacity)
+    this.maximums = LongArray(initialCapacity)
+    this.lefts = IntArray(initialCapacity)
+    this.rights = IntArray(initialCapacity)
+    this.heights = IntArray(initialCapacity)
+    this.sizes = IntArray(initialCapacity)
+    this.used = 0
+    this.freeHead = NIL
+  }
+
+  private fun grow() {
+    val capacity = this.lowers.size
+    check(capacity < Int.MAX_VALUE) {
+      "Node store cannot hold more than ${Int.MAX_VALUE} nodes"
+    }
+
+    val newCapacity =
+      if (capacity > Int.MAX_VALUE / 2) {
+        Int.MAX_VALUE
+      } else {
+        capacity * 2
+      }
+
+    this.lowers = this.lowers.copyOf(newCapacity)
+    this.uppers = this.uppers.copyOf(newCapacity)
+    this.maximums = this.maximums.copyOf(newCapacity)
+    this.lefts = this.lefts.copyOf(newCapacity)
+    this.rights = this.rights.copyOf(newCapacity)
+    this.heights = this.heights.copyOf(newCapacity)
+    this.sizes = this.sizes.copyOf(newCapacity)
+  }
+
+  override fun allocate(
+    lower : Long,
+    upper : Long
+  ) : Int {
+    val node : Int
+    if (this.freeHead != NIL) {
+      node = this.freeHead
+      this.freeHead = this.lefts[node]
+    } else {
+      if (this.used == this.lowers.size) {
+        this.grow()
+      }
+      node = this.used
+      ++this.used
+    }
+
+    this.lowers[node] = lower
+    this.uppers[node] = upper
+    this.maximums[node] = upper
+    this.lefts[node] = NIL
+    this.rights[node] = NIL
+    this.heights[node] = 1
+    this.sizes[node] = 1
+    return node
+  }
+
+  override fun free(node : Int) {
+    this.lefts[node] = this.freeHead
+    this.rights[node] = NIL
+    this.heights[node] = 0
+    this.freeHead = node
+  }
+
+  override fun clear() {
+    this.used = 0
+    this.freeHead = NIL
+  }
+
+  override fun close() {
+    this.clear()
+    this.lowers = LongArray(0)
+    this.uppers = LongArray(0)
+    this.maximums = LongArray(0)
+    this.lefts = IntArray(0)
+    this.rights = IntArray(0)
+    this.heights = IntArray(0)
+    this.sizes = IntArray(0)
+  }
+
+  override fun lower(node : Int) : Long {
+    return this.lowers[node]
+  }
+
+  override fun setLower(
+    node : Int,
+    value : Long
+  ) {
+    this.lowers[node] = value
+  }
+
+  override fun upper(node : Int) : Long {
+    return this.uppers[node]
+  }
+
+  override fun setUpper(
+    node : Int,
+    value : Long
+  ) {
+    this.uppers[node] = value
+  }
+
+  override fun maximum(node : Int) : Long {
+    return this.maximums[node]
+  }
+
+  override fun setMaximum(
+    node : Int,
+    value : Long
+  ) {
+    this.maximums[node] = value
+  }
+
+  override fun left(node : Int) : Int {
+    return this.lefts[node]
+  }
+
+  override fun setLeft(
+    node : Int,
+    value : Int
+  ) {
+    this.lefts[node] = value
+  }
+
+  override fun right(node : Int) : Int {
+    return this.rights[node]
+  }
+
+  override fun setRight(
+    node : Int,
+    value : Int
+  ) {
+    this.rights[node] = value
+  }
+
+  override fun height(node : Int) : Int {
+    return this.heights[node]
+  }
+
+  override fun setHeight(
+    node : Int,
+    value : Int
+  ) {
+    this.heights[node] = value
+  }
+
+  override fun size(node : Int) : Int {
+    return this.sizes[node]
+  }
+
+  override fun setSize(
+    node : Int,
+    value : Int
+  ) {
+    this.sizes[node] = value
+  }
+}
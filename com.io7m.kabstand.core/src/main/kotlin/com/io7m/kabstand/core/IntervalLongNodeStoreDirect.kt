@@ -0,0 +1,243 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.core
+
+import com.io7m.kabstand.core.IntervalLongNodeStoreType.Companion.NIL
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * A node store that keeps nodes as fixed-size records in direct (off-heap)
+ * byte buffers. Storage is allocated in chunks of a fixed number of
+ * records, and a new chunk is allocated whenever the existing chunks are
+ * full. Released nodes are kept on a free list threaded through the left
+ * child fields of the records, and are reused before new chunks are
+ * allocated.
+ *
+ * Each record is laid out as follows:
+ *
+ * ```
+ * offset  0: lower   (long)
+ * offset  8: upper   (long)
+ * offset 16: maximum (long)
+ * offset 24: left    (int)
+ * offset 28: right   (int)
+ * offset 32: height  (int)
+ * offset 36: size    (int)
+ * ```
+ *
+ * The Java 11 platform does not provide a means to explicitly release the
+ * memory backing a direct buffer. Closing the store discards the chunks,
+ * and the memory is released when the (small number of) buffer objects are
+ * collected.
+ *
+ * @param chunkRecords The number of records per chunk; rounded up to a
+ * power of two
+ */
+
+internal class IntervalLongNodeStoreDirect(
+  chunkRecords : Int
+) : IntervalLongNodeStoreType {
+
+  companion object {
+    private const val RECORD_SIZE = 40
+    private const val OFFSET_LOWER = 0
+    private const val OFFSET_UPPER = 8
+    private const val OFFSET_MAXIMUM = 16
+    private const val OFFSET_LEFT = 24
+    private const val OFFSET_RIGHT = 28
+    private const val OFFSET_HEIGHT = 32
+    private const val OFFSET_SIZE = 36
+
+    private const val MAXIMUM_CHUNK_RECORDS = 1 shl 24
+  }
+
+  private val chunkShift : Int
+  private val chunkMask : Int
+  private var chunks : Array<ByteBuffer?>
+  private var chunkCount : Int
+  private var used : Int
+  private var freeHead : Int
+
+  init {
+    require(chunkRecords in 1..MAXIMUM_CHUNK_RECORDS) {
+      "Chunk records $chunkRecords must be in the range [1, $MAXIMUM_CHUNK_RECORDS]"
+    }
+
+    val records =
+      if (Integer.bitCount(chunkRecords) == 1) {
+        chunkRecords
+      } else {
+        Integer.highestOneBit(chunkRecords) shl 1
+      }
+
+    this.chunkShift = Integer.numberOfTrailingZeros(records)
+    this.chunkMask = records - 1
+    this.chunks = arrayOfNulls(8)
+    this.chunkCount = 0
+    this.used = 0
+    this.freeHead = NIL
+  }
+
+  private fun chunkOf(node : Int) : ByteBuffer {
+    return this.chunks[node ushr this.chunkShift]!!
+  }
+
+  private fun offsetOf(node : Int) : Int {
+    return (node and this.chunkMask) * RECORD_SIZE
+  }
+
+  private fun addChunk() {
+    check(this.used <= Int.MAX_VALUE - (this.chunkMask + 1)) {
+      "Node store cannot hold more than ${Int.MAX_VALUE} nodes"
+    }
+
+    if (this.chunkCount == this.chunks.size) {
+      this.chunks = this.chunks.copyOf(this.chunks.size * 2)
+    }
+
+    val bytes = (this.chunkMask + 1) * RECORD_SIZE
+    this.chunks[this.chunkCount] =
+      ByteBuffer.allocateDirect(bytes)
+        .order(ByteOrder.nativeOrder())
+    ++this.chunkCount
+  }
+
+  override fun allocate(
+    lower : Long,
+    upper : Long
+  ) : Int {
+    val node : Int
+    if (this.freeHead != NIL) {
+      node = this.freeHead
+      this.freeHead = this.left(node)
+    } else {
+      if (this.used == (this.chunkCount shl this.chunkShift)) {
+        this.addChunk()
+      }
+      node = this.used
+      ++this.used
+    }
+
+    val chunk = this.chunkOf(node)
+    val offset = this.offsetOf(node)
+    chunk.putLong(offset + OFFSET_LOWER, lower)
+    chunk.putLong(offset + OFFSET_UPPER, upper)
+    chunk.putLong(offset + OFFSET_MAXIMUM, upper)
+    chunk.putInt(offset + OFFSET_LEFT, NIL)
+    chunk.putInt(offset + OFFSET_RIGHT, NIL)
+    chunk.putInt(offset + OFFSET_HEIGHT, 1)
+    chunk.putInt(offset + OFFSET_SIZE, 1)
+    return node
+  }
+
+  override fun free(node : Int) {
+    this.setLeft(node, this.freeHead)
+    this.setRight(node, NIL)
+    this.setHeight(node, 0)
+    this.freeHead = node
+  }
+
+  override fun clear() {
+    this.used = 0
+    this.freeHead = NIL
+  }
+
+  override fun close() {
+    this.clear()
+    this.chunks.fill(null)
+    this.chunks = arrayOfNulls(0)
+    this.chunkCount = 0
+  }
+
+  override fun lower(node : Int) : Long {
+    return this.chunkOf(node).getLong(this.offsetOf(node) + OFFSET_LOWER)
+  }
+
+  override fun setLower(
+    node : Int,
+    value : Long
+  ) {
+    this.chunkOf(node).putLong(this.offsetOf(node) + OFFSET_LOWER, value)
+  }
+
+  override fun upper(node : Int) : Long {
+    return this.chunkOf(node).getLong(this.offsetOf(node) + OFFSET_UPPER)
+  }
+
+  override fun setUpper(
+    node : Int,
+    value : Long
+  ) {
+    this.chunkOf(node).putLong(this.offsetOf(node) + OFFSET_UPPER, value)
+  }
+
+  override fun maximum(node : Int) : Long {
+    return this.chunkOf(node).getLong(this.offsetOf(node) + OFFSET_MAXIMUM)
+  }
+
+  override fun setMaximum(
+    node : Int,
+    value : Long
+  ) {
+    this.chunkOf(node).putLong(this.offsetOf(node) + OFFSET_MAXIMUM, value)
+  }
+
+  override fun left(node : Int) : Int {
+    return this.chunkOf(node).getInt(this.offsetOf(node) + OFFSET_LEFT)
+  }
+
+  override fun setLeft(
+    node : Int,
+    value : Int
+  ) {
+    this.chunkOf(node).putInt(this.offsetOf(node) + OFFSET_LEFT, value)
+  }
+
+  override fun right(node : Int) : Int {
+    return this.chunkOf(node).getInt(this.offsetOf(node) + OFFSET_RIGHT)
+  }
+
+  override fun setRight(
+    node : Int,
+    value : Int
+  ) {
+    this.chunkOf(node).putInt(this.offsetOf(node) + OFFSET_RIGHT, value)
+  }
+
+  override fun height(node : Int) : Int {
+    return this.chunkOf(node).getInt(this.offsetOf(node) + OFFSET_HEIGHT)
+  }
+
+  override fun setHeight(
+    node : Int,
+    value : Int
+  ) {
+    this.chunkOf(node).putInt(this.offsetOf(node) + OFFSET_HEIGHT, value)
+  }
+
+  override fun size(node : Int) : Int {
+    return this.chunkOf(node).getInt(this.offsetOf(node) + OFFSET_SIZE)
+  }
+
+  override fun setSize(
+    node : Int,
+    value : Int
+  ) {
+    this.chunkOf(node).putInt(this.offsetOf(node) + OFFSET_SIZE, value)
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.core
+
+/**
+ * Storage for the nodes of an [IntervalTreeLongPacked]. Nodes are
+ * addressed by non-negative `int` indices, and [NIL] is used to indicate
+ * the absence of a node. Each node holds an interval, the maximum upper
+ * bound of its subtree, the indices of its children, its height, and the
+ * number of intervals in its subtree.
+ */
+
+internal interface IntervalLongNodeStoreType : AutoCloseable {
+
+  companion object {
+
+    /**
+     * The index used to indicate the absence of a node.
+     */
+
+    const val NIL : Int = -1
+  }
+
+  /**
+   * Allocate a new leaf node. The node's maximum is set to `upper`, its
+   * children are set to [NIL], and its height and size are set to `1`.
+   *
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return The index of the new node
+   */
+
+  fun allocate(
+    lower : Long,
+    upper : Long
+  ) : Int
+
+  /**
+   * Release a node. The index may be returned by a subsequent call to
+   * [allocate].
+   *
+   * @param node The node
+   */
+
+  fun free(node : Int)
+
+  /**
+   * Release all nodes.
+   */
+
+  fun clear()
+
+  /**
+   * Discard all references to the underlying storage. The storage becomes
+   * eligible for garbage collection, but is not freed by this method. The
+   * store cannot be used after it has been closed.
+   */
+
+  override fun close()
+
+  fun lower(node : Int) : Long
+
+  fun setLower(node : Int, value : Long)
+
+  fun upper(node : Int) : Long
+
+  fun setUpper(node : Int, value : Long)
+
+  fun maximum(node : Int) : Long
+
+  fun setMaximum(node : Int, value : Long)
+
+  fun left(node : Int) : Int
+
+  fun setLeft(node : Int, value : Int)
+
+  fun right(node : Int) : Int
+
+  fun setRight(node : Int, value : Int)
+
+  fun height(node : Int) : Int
+
+  fun setHeight(node : Int, value : Int)
+
+  fun size(node : Int) : Int
+
+  fun setSize(node : Int, value : Int)
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.core
+
+import com.io7m.kabstand.core.IntervalTree.BalanceFactor.*
+import kotlin.math.max
+
+/**
+ * A node in one of the interval trees specialized to primitive bounds.
+ * The node holds the structure of the tree (the children, the height of
+ * the node, and the number of intervals in its subtree), whilst the
+ * subclass for each scalar type holds the bounds of the node's interval
+ * and the maximum upper bound of its subtree as primitive values.
+ *
+ * @param <S> The type of scalar values in intervals
+ * @param <N> The precise type of nodes
+ */
+
+internal abstract class IntervalNode<S : Comparable<S>, N : IntervalNode<S, N>> {
+
+  var left : N? = null
+  var right : N? = null
+  var height : Int = 1
+  var size : Int = 1
+
+  /**
+   * Recalculate the maximum upper bound of this node's subtree from the
+   * node's own interval and the cached maximums of the immediate children.
+   */
+
+  abstract fun updateMaximum()
+
+  /**
+   * @return A new interval holding the bounds of this node
+   */
+
+  abstract fun interval() : IntervalType<S>
+
+  /**
+   * Compare the interval held in this node against the interval held in
+   * `other`. The ordering is the same as that of [IntervalType.compare].
+   */
+
+  abstract fun compareNode(other : N) : IntervalComparison
+
+  /**
+   * Replace the interval held in this node with the interval held in
+   * `other`.
+   */
+
+  abstract fun copyInterval(other : N)
+
+  /**
+   * Check that the node's bounds are ordered, and that its maximum is
+   * the maximum of its own upper bound and those of its children.
+   */
+
+  abstract fun checkBounds()
+
+  fun leftHeight() : Int {
+    return this.left?.height ?: 0
+  }
+
+  fun rightHeight() : Int {
+    return this.right?.height ?: 0
+  }
+
+  fun balanceFactor() : IntervalTree.BalanceFactor {
+    val delta : Int = this.leftHeight() - this.rightHeight()
+    if (delta > 1) {
+      return LEFT_HEAVY
+    }
+    if (delta > 0) {
+      return BALANCED_LEANING_LEFT
+    }
+    if (delta < -1) {
+      return RIGHT_HEAVY
+    }
+    return if (delta < 0) {
+      BALANCED_LEANING_RIGHT
+    } else BALANCED
+  }
+
+  fun updateHeight() {
+    this.height = max(this.leftHeight(), this.rightHeight()) + 1
+  }
+
+  /**
+   * Recalculate the number of intervals in this node's subtree from the
+   * cached sizes of the immediate children.
+   */
+
+  fun updateSize() {
+    this.size = (this.left?.size ?: 0) + (this.right?.size ?: 0) + 1
+  }
+}
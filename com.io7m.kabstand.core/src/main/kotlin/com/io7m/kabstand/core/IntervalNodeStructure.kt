@@ -0,0 +1,502 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.core
+
+import com.io7m.kabstand.core.IntervalTree.BalanceFactor.*
+import com.io7m.kabstand.core.IntervalTreeChangeType.Deleted
+import kotlin.math.max
+
+/**
+ * The structure shared by the interval trees specialized to primitive
+ * bounds ([IntervalTreeLong], [IntervalTreeInt], and [IntervalTreeDouble]).
+ * The structure holds the root of an AVL tree of [IntervalNode] values and
+ * performs the rebalancing, removal, iteration, and validation that do
+ * not depend on the scalar type. Each tree performs its own descents and
+ * overlap queries, comparing the primitive bounds held in its own nodes
+ * directly, and records the path taken in the structure using [pathPush]
+ * so that the structure can link or unlink a node and rebalance the path
+ * without recursion.
+ *
+ * @param <S> The type of scalar values in intervals
+ * @param <N> The precise type of nodes
+ */
+
+internal class IntervalNodeStructure<S : Comparable<S>, N : IntervalNode<S, N>> {
+
+  /*
+   * The path from the root taken by the current insertion or removal, and
+   * the direction taken at each node on the path (`true` for left).
+   */
+
+  private var path : Array<IntervalNode<S, N>?> =
+    arrayOfNulls(PATH_INITIAL_SIZE)
+  private var pathLeft : BooleanArray =
+    BooleanArray(PATH_INITIAL_SIZE)
+
+  private var listener : (IntervalTreeChangeType<S>) -> Unit = { }
+
+  /*
+   * Set once a listener has been installed. Events are only constructed
+   * when someone is listening, as constructing an event allocates an
+   * interval.
+   */
+
+  private var listening : Boolean = false
+
+  var validation : Boolean = false
+
+  var root : N? = null
+    private set
+
+  /*
+   * The number of intervals in the tree.
+   */
+
+  var count : Int = 0
+    private set
+
+  /*
+   * The number of structural modifications made to the tree. Used by
+   * iterators to detect concurrent modification.
+   */
+
+  private var modCount : Int = 0
+
+  companion object {
+    private const val PATH_INITIAL_SIZE = 48
+  }
+
+  fun setChangeListener(listener : (IntervalTreeChangeType<S>) -> Unit) {
+    this.listener = listener
+    this.listening = true
+  }
+
+  private fun publish(change : IntervalTreeChangeType<S>) {
+    try {
+      this.listener(change)
+    } catch (e : Throwable) {
+      // Nothing we can do about it.
+    }
+  }
+
+  /**
+   * Record `node` as the next node on the current path, along with the
+   * direction taken from it.
+   */
+
+  fun pathPush(
+    depth : Int,
+    node : N,
+    wentLeft : Boolean
+  ) {
+    if (depth == this.path.size) {
+      this.path = this.path.copyOf(this.path.size * 2)
+      this.pathLeft = this.pathLeft.copyOf(this.pathLeft.size * 2)
+    }
+    this.path[depth] = node
+    this.pathLeft[depth] = wentLeft
+  }
+
+  fun pathClear(depth : Int) {
+    for (index in 0 until depth) {
+      this.path[index] = null
+    }
+  }
+
+  /**
+   * Insert `leaf` at the end of the path of length `depth` recorded by the
+   * descent that failed to find its interval, and rebalance the path.
+   */
+
+  fun insertAt(
+    depth : Int,
+    leaf : N
+  ) {
+    if (this.listening) {
+      this.publish(IntervalTreeChangeType.Created(leaf.interval()))
+    }
+    this.rebalancePath(depth, leaf)
+    ++this.count
+    ++this.modCount
+    this.validate()
+  }
+
+  /**
+   * Remove `target`, the node found at the end of the path of length
+   * `depth` recorded by the descent, and rebalance the path.
+   */
+
+  fun removeAt(
+    depth : Int,
+    target : N
+  ) {
+    val removed = if (this.listening) target.interval() else null
+    val leftST = target.left
+    val rightST = target.right
+
+    /*
+     * If the node has no children, then it is replaced with nothing.
+     * If the node has only a single child, then the node is replaced by
+     * its own child.
+     */
+
+    if (leftST == null || rightST == null) {
+      if (removed != null) {
+        if (leftST == null && rightST == null) {
+          this.publish(Deleted("Leaf", removed))
+        } else if (leftST != null) {
+          this.publish(Deleted("SingleParentL", removed))
+        } else {
+          this.publish(Deleted("SingleParentR", removed))
+        }
+      }
+      this.rebalancePath(depth, leftST ?: rightST)
+      --this.count
+      ++this.modCount
+      this.validate()
+      return
+    }
+
+    /*
+     * The node must have two children. The node takes the interval of its
+     * successor (the node with the smallest interval greater than the
+     * node's), and the successor is unlinked from the right subtree. The
+     * successor has no left child, so it is replaced by its right child.
+     */
+
+    var pathDepth = depth
+    this.pathPush(pathDepth, target, false)
+    ++pathDepth
+
+    var successor : N = rightST
+    while (true) {
+      val next = successor.left ?: break
+      this.pathPush(pathDepth, successor, true)
+      ++pathDepth
+      successor = next
+    }
+
+    if (this.listening) {
+      if (successor.right == null) {
+        this.publish(Deleted("Leaf", successor.interval()))
+      } else {
+        this.publish(Deleted("SingleParentR", successor.interval()))
+      }
+    }
+
+    target.copyInterval(successor)
+    this.rebalancePath(pathDepth, successor.right)
+    --this.count
+    ++this.modCount
+    if (removed != null) {
+      this.publish(Deleted("Branch", removed))
+    }
+    this.validate()
+  }
+
+  /**
+   * Walk back up the current path from `depth - 1` to the root. At each
+   * node, the subtree that the path descended into is replaced with
+   * `replacement`, the node's height, size, and maximum are recalculated,
+   * and the node is rebalanced. The (possibly new) root of each rebalanced
+   * subtree becomes the replacement for the level above.
+   */
+
+  @Suppress("UNCHECKED_CAST")
+  private fun rebalancePath(
+    depth : Int,
+    replacement : N?
+  ) {
+    var newSubtree = replacement
+    for (index in depth - 1 downTo 0) {
+      val current = this.path[index] as N
+      this.path[index] = null
+
+      if (this.pathLeft[index]) {
+        current.left = newSubtree
+      } else {
+        current.right = newSubtree
+      }
+      current.updateMaximum()
+      current.updateHeight()
+      current.updateSize()
+      newSubtree = this.balance(current)
+    }
+    this.root = newSubtree
+  }
+
+  private fun publishBalanced(
+    type : String,
+    node : N
+  ) {
+    if (this.listening) {
+      this.publish(IntervalTreeChangeType.Balanced(type, node.interval()))
+    }
+  }
+
+  private fun balance(current : N) : N {
+    return when (current.balanceFactor()) {
+      BALANCED,
+      BALANCED_LEANING_LEFT,
+      BALANCED_LEANING_RIGHT -> {
+        current
+      }
+
+      LEFT_HEAVY             -> {
+        when (current.left!!.balanceFactor()) {
+          RIGHT_HEAVY,
+          BALANCED_LEANING_RIGHT -> {
+            this.publishBalanced("RL", current)
+            this.rotateRL(current)
+          }
+
+          LEFT_HEAVY,
+          BALANCED,
+          BALANCED_LEANING_LEFT  -> {
+            this.publishBalanced("RR", current)
+            this.rotateRR(current)
+          }
+        }
+      }
+
+      RIGHT_HEAVY            -> {
+        when (current.right!!.balanceFactor()) {
+          LEFT_HEAVY,
+          BALANCED_LEANING_LEFT  -> {
+            this.publishBalanced("LR", current)
+            this.rotateLR(current)
+          }
+
+          RIGHT_HEAVY,
+          BALANCED,
+          BALANCED_LEANING_RIGHT -> {
+            this.publishBalanced("LL", current)
+            this.rotateLL(current)
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Perform an RR ("Single Right") rotation.
+   *
+   * @param c The current node
+   *
+   * @return The new root node of the subtree
+   */
+
+  private fun rotateRR(c : N) : N {
+    val b : N = c.left!!
+    c.left = b.right
+    b.right = c
+    c.updateHeight()
+    c.updateSize()
+    c.updateMaximum()
+    b.updateHeight()
+    b.updateSize()
+    b.updateMaximum()
+    return b
+  }
+
+  /**
+   * Perform an LL ("Single Left") rotation.
+   *
+   * @param a The current node
+   *
+   * @return The new root node of the subtree
+   */
+
+  private fun rotateLL(a : N) : N {
+    val b : N = a.right!!
+    a.right = b.left
+    b.left = a
+    a.updateHeight()
+    a.updateSize()
+    a.updateMaximum()
+    b.updateHeight()
+    b.updateSize()
+    b.updateMaximum()
+    return b
+  }
+
+  /**
+   * Perform an RL ("Double Right") rotation.
+   *
+   * @param current The current node
+   *
+   * @return The new root node of the subtree
+   */
+
+  private fun rotateRL(current : N) : N {
+    current.left = this.rotateLL(current.left!!)
+    return this.rotateRR(current)
+  }
+
+  /**
+   * Perform an LR ("Double Left") rotation.
+   *
+   * @param current The current node
+   *
+   * @return The new root node of the subtree
+   */
+
+  private fun rotateLR(current : N) : N {
+    current.right = this.rotateRR(current.right!!)
+    return this.rotateLL(current)
+  }
+
+  /**
+   * @return The node holding the smallest interval, if any
+   */
+
+  fun minimum() : N? {
+    var current = this.root ?: return null
+    while (true) {
+      current = current.left ?: return current
+    }
+  }
+
+  /**
+   * @return The node holding the greatest interval, if any
+   */
+
+  fun maximum() : N? {
+    var current = this.root ?: return null
+    while (true) {
+      current = current.right ?: return current
+    }
+  }
+
+  fun clear() {
+    if (this.listening) {
+      this.publish(IntervalTreeChangeType.Cleared())
+    }
+    this.root = null
+    this.count = 0
+    ++this.modCount
+  }
+
+  private fun validateAt(current : N?) {
+    if (current == null) {
+      return
+    }
+
+    val leftST = current.left
+    val rightST = current.right
+
+    current.checkBounds()
+
+    if (leftST != null) {
+      val cmp = leftST.compareNode(current)
+      check(cmp == IntervalComparison.LESS_THAN) {
+        "Left value node ${leftST.interval()} must be < current node value ${current.interval()} but is $cmp"
+      }
+    }
+    if (rightST != null) {
+      val cmp = rightST.compareNode(current)
+      check(cmp == IntervalComparison.MORE_THAN) {
+        "Right value node ${rightST.interval()} must be > current node value ${current.interval()} but is $cmp"
+      }
+    }
+
+    check(current.height == max(current.leftHeight(), current.rightHeight()) + 1) {
+      "Height of node ${current.interval()} is incorrect"
+    }
+    check(current.size == (leftST?.size ?: 0) + (rightST?.size ?: 0) + 1) {
+      "Size of node ${current.interval()} is incorrect"
+    }
+    check(current.balanceFactor().isBalanced) {
+      "Balance factor of node ${current.interval()} is ${current.balanceFactor()}"
+    }
+
+    this.validateAt(leftST)
+    this.validateAt(rightST)
+  }
+
+  private fun validate() {
+    if (this.validation) {
+      this.validateAt(this.root)
+
+      val rootSize = this.root?.size ?: 0
+      check(rootSize == this.count) {
+        "Tree size $rootSize does not match the count ${this.count}"
+      }
+    }
+  }
+
+  fun iterator() : Iterator<IntervalType<S>> {
+    return NodeIterator()
+  }
+
+  /**
+   * An in-order iterator over the tree. The iterator holds a stack of the
+   * nodes whose intervals have yet to be returned, and whose right
+   * subtrees have yet to be visited; the stack is never deeper than the
+   * height of the tree. Intervals are allocated as they are returned. The
+   * iterator fails with a [ConcurrentModificationException] if the tree
+   * is modified.
+   */
+
+  private inner class NodeIterator : Iterator<IntervalType<S>> {
+    private var stack : Array<IntervalNode<S, N>?> =
+      arrayOfNulls((this@IntervalNodeStructure.root?.height ?: 0) + 1)
+    private var stackSize : Int = 0
+    private val expectedModCount : Int = this@IntervalNodeStructure.modCount
+
+    init {
+      this.pushLeftSpine(this@IntervalNodeStructure.root)
+    }
+
+    private fun pushLeftSpine(node : N?) {
+      var current = node
+      while (current != null) {
+        if (this.stackSize == this.stack.size) {
+          this.stack = this.stack.copyOf(this.stack.size * 2)
+        }
+        this.stack[this.stackSize] = current
+        ++this.stackSize
+        current = current.left
+      }
+    }
+
+    private fun checkModification() {
+      if (this.expectedModCount != this@IntervalNodeStructure.modCount) {
+        throw ConcurrentModificationException()
+      }
+    }
+
+    override fun hasNext() : Boolean {
+      this.checkModification()
+      return this.stackSize > 0
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    override fun next() : IntervalType<S> {
+      this.checkModification()
+      if (this.stackSize == 0) {
+        throw NoSuchElementException()
+      }
+
+      --this.stackSize
+      val node = this.stack[this.stackSize] as N
+      this.stack[this.stackSize] = null
+      this.pushLeftSpine(node.right)
+      return node.interval()
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.core
+
+/**
+ * The degenerate interval `[point, point]`, used as the query interval of
+ * the default [IntervalTreeType.stabbing] implementation. Overlap is
+ * decided with [IntervalBounds], and so agrees with the other queries for
+ * floating-point bounds. A point has no size that can be expressed for an
+ * arbitrary scalar type, so this interval is only suitable as a query.
+ *
+ * @param <S> The scalar type
+ */
+
+internal class IntervalPoint<S : Comparable<S>>(
+  private val point : S
+) : IntervalType<S> {
+
+  override fun overlaps(other : IntervalType<S>) : Boolean {
+    return IntervalBounds.atMost(other.lower(), this.point) &&
+      IntervalBounds.atLeast(other.upper(), this.point)
+  }
+
+  override fun size() : S {
+    throw UnsupportedOperationException("A point query has no size.")
+  }
+
+  override fun upper() : S {
+    return this.point
+  }
+
+  override fun lower() : S {
+    return this.point
+  }
+
+  override fun upperMaximum(other : IntervalType<S>) : IntervalType<S> {
+    throw UnsupportedOperationException("A point query cannot be widened.")
+  }
+
+  override fun toString() : String {
+    return "[${this.point}, ${this.point}]"
+  }
+}
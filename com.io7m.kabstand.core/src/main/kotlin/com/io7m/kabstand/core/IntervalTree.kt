@@ -18,9 +18,10 @@ package com.io7m.kabstand.core
 
 import com.io7m.kabstand.core.IntervalTree.BalanceFactor.*
 import com.io7m.kabstand.core.IntervalTreeChangeType.Deleted
-import java.util.function.Function
-import java.util.stream.Collectors
-import java.util.stream.Stream
+import java.util.Spliterator
+import java.util.concurrent.ForkJoinPool
+import java.util.function.Consumer
+import java.util.function.Predicate
 import kotlin.math.max
 
 /**
@@ -36,25 +37,65 @@ class IntervalTree<S : Comparable<S>> private constructor(
   private var validation : Boolean
 ) : IntervalTreeDebuggableType<S> {
 
+  /*
+   * The path from the root taken by the current insertion or removal, and
+   * the direction taken at each node on the path (`true` for left). The
+   * height of an AVL tree is bounded by ~1.44 * log2(n + 2), so the
+   * arrays rarely need to grow beyond their initial size.
+   */
+
+  private var path : Array<Node<S>?> = arrayOfNulls(PATH_INITIAL_SIZE)
+  private var pathLeft : BooleanArray = BooleanArray(PATH_INITIAL_SIZE)
+
+  /*
+   * The number of intervals in the tree.
+   */
+
+  private var count : Int = 0
+
+  /*
+   * The number of structural modifications made to the tree. Used by
+   * iterators to detect concurrent modification.
+   */
+
+  private var modCount : Int = 0
+
+  /*
+   * Set while a batch operation is in progress, during which the events
+   * for individual nodes are not published.
+   */
+
+  private var batching : Boolean = false
+
   private class Node<S : Comparable<S>>(
     var interval : IntervalType<S>,
     var left : Node<S>?,
-    var parent : Node<S>?,
     var right : Node<S>?,
-    var maximum : IntervalType<S>,
-    var height : Int
+    var maximum : S,
+    var height : Int,
+    var size : Int
   ) {
 
-    fun updateMaximum() : IntervalType<S> {
-      var newMaximum = this.maximum
-      if (this.left != null) {
-        newMaximum = this.maximum.upperMaximum(this.left!!.updateMaximum())
+    /**
+     * Recalculate the maximum upper bound of this node's subtree from the
+     * node's own interval and the cached maximums of the immediate children.
+     * The children's maximums must already be up-to-date. The existing
+     * maximum value is kept if the maximum has not changed.
+     */
+
+    fun updateMaximum() {
+      var newMaximum = this.interval.upper()
+      val leftST = this.left
+      if (leftST != null && leftST.maximum > newMaximum) {
+        newMaximum = leftST.maximum
       }
-      if (this.right != null) {
-        newMaximum = this.maximum.upperMaximum(this.right!!.updateMaximum())
+      val rightST = this.right
+      if (rightST != null && rightST.maximum > newMaximum) {
+        newMaximum = rightST.maximum
+      }
+      if (newMaximum.compareTo(this.maximum) != 0) {
+        this.maximum = newMaximum
       }
-      this.maximum = newMaximum
-      return newMaximum
     }
 
     fun leftHeight() : Int {
@@ -97,10 +138,13 @@ class IntervalTree<S : Comparable<S>> private constructor(
       this.height = max(this.leftHeight(), this.rightHeight()) + 1
     }
 
-    fun takeOwnershipLeft(node : Node<S>?) {
-      this.left = node
-      node?.setNewParent(this)
-      this.checkInvariants()
+    /**
+     * Recalculate the number of intervals in this node's subtree from the
+     * cached sizes of the immediate children.
+     */
+
+    fun updateSize() {
+      this.size = (this.left?.size ?: 0) + (this.right?.size ?: 0) + 1
     }
 
     fun checkInvariants() {
@@ -113,9 +157,6 @@ class IntervalTree<S : Comparable<S>> private constructor(
       check(this != rightST) {
         "A node must not be equal to its own right child."
       }
-      check(this != this.parent) {
-        "A node must not be equal to its own parent."
-      }
 
       if (leftST != null) {
         val cmp = leftST.interval.compare(this.interval)
@@ -130,31 +171,43 @@ class IntervalTree<S : Comparable<S>> private constructor(
         }
       }
     }
+  }
 
-    fun setNewParent(node : Node<S>?) {
-      check(node != this) {
-        "A node's parent must not be equal to the node."
-      }
-      if (node != null) {
-        check(node != this.left) {
-          "A node's parent must not be equal to its own left child."
-        }
-        check(node != this.right) {
-          "A node's parent must not be equal to its own right child."
-        }
-      }
-      this.parent = node
-      this.checkInvariants()
+  /*
+   * Set the left child of `owner`. The link is checked only when internal
+   * validation is enabled; checking involves comparing intervals, and
+   * happens for every link written during rebalancing.
+   */
+
+  private fun takeOwnershipLeft(
+    owner : Node<S>,
+    node : Node<S>?
+  ) {
+    owner.left = node
+    if (this.validation) {
+      owner.checkInvariants()
     }
+  }
 
-    fun takeOwnershipRight(node : Node<S>?) {
-      this.right = node
-      node?.setNewParent(this)
-      this.checkInvariants()
+  /*
+   * Set the right child of `owner`. The link is checked only when internal
+   * validation is enabled.
+   */
+
+  private fun takeOwnershipRight(
+    owner : Node<S>,
+    node : Node<S>?
+  ) {
+    owner.right = node
+    if (this.validation) {
+      owner.checkInvariants()
     }
   }
 
   private fun publish(change : IntervalTreeChangeType<S>) {
+    if (this.batching) {
+      return
+    }
     try {
       this.listener(change)
     } catch (e : Throwable) {
@@ -162,13 +215,6 @@ class IntervalTree<S : Comparable<S>> private constructor(
     }
   }
 
-  private fun sizeTraverse(node : Node<S>?) : Int {
-    if (node == null) {
-      return 0
-    }
-    return 1 + this.sizeTraverse(node.left) + this.sizeTraverse(node.right)
-  }
-
   private fun balance(current : Node<S>) : Node<S> {
     return when (current.balanceFactor()) {
       BALANCED,
@@ -244,18 +290,19 @@ class IntervalTree<S : Comparable<S>> private constructor(
   private fun rotateRR(c : Node<S>) : Node<S> {
     // B becomes the new root of the subtree.
     val b : Node<S> = c.left!!
-    val oldParent : Node<S>? = c.parent
 
     // C takes ownership of B's right child as its own left child.
-    c.takeOwnershipLeft(b.right)
+    this.takeOwnershipLeft(c, b.right)
 
     // B takes ownership of C as its right child.
-    b.takeOwnershipRight(c)
+    this.takeOwnershipRight(b, c)
 
-    // B's parent is now what C's _used_ to be.
-    b.setNewParent(oldParent)
     c.updateHeight()
+    c.updateSize()
+    c.updateMaximum()
     b.updateHeight()
+    b.updateSize()
+    b.updateMaximum()
     return b
   }
 
@@ -270,18 +317,19 @@ class IntervalTree<S : Comparable<S>> private constructor(
   private fun rotateLL(a : Node<S>) : Node<S> {
     // B becomes the new root of the subtree.
     val b : Node<S> = a.right!!
-    val oldParent : Node<S>? = a.parent
 
     // A takes ownership of B's left child as its own right child.
-    a.takeOwnershipRight(b.left)
+    this.takeOwnershipRight(a, b.left)
 
     // B takes ownership of A as its own left child.
-    b.takeOwnershipLeft(a)
+    this.takeOwnershipLeft(b, a)
 
-    // B's parent is now what A's _used_ to be.
-    b.setNewParent(oldParent)
     a.updateHeight()
+    a.updateSize()
+    a.updateMaximum()
     b.updateHeight()
+    b.updateSize()
+    b.updateMaximum()
     return b
   }
 
@@ -295,7 +343,7 @@ class IntervalTree<S : Comparable<S>> private constructor(
    */
 
   private fun rotateRL(current : Node<S>) : Node<S> {
-    current.takeOwnershipLeft(this.rotateLL(current.left!!))
+    this.takeOwnershipLeft(current, this.rotateLL(current.left!!))
     check(current.balanceFactor() == LEFT_HEAVY) {
       "Node must be LEFT_HEAVY after rotation."
     }
@@ -312,7 +360,7 @@ class IntervalTree<S : Comparable<S>> private constructor(
    */
 
   private fun rotateLR(current : Node<S>) : Node<S> {
-    current.takeOwnershipRight(this.rotateRR(current.right!!))
+    this.takeOwnershipRight(current, this.rotateRR(current.right!!))
     check(current.balanceFactor() == RIGHT_HEAVY) {
       "Node must be RIGHT_HEAVY after rotation."
     }
@@ -330,6 +378,30 @@ class IntervalTree<S : Comparable<S>> private constructor(
       "Balance factor of node $current is ${current.balanceFactor()}"
     }
 
+    val expectedSize =
+      (current.left?.size ?: 0) + (current.right?.size ?: 0) + 1
+    check(current.size == expectedSize) {
+      "Size of node $current is ${current.size} but should be $expectedSize"
+    }
+
+    val expectedHeight = max(current.leftHeight(), current.rightHeight()) + 1
+    check(current.height == expectedHeight) {
+      "Height of node $current is ${current.height} but should be $expectedHeight"
+    }
+
+    var expectedMaximum = current.interval.upper()
+    val leftST = current.left
+    if (leftST != null && leftST.maximum > expectedMaximum) {
+      expectedMaximum = leftST.maximum
+    }
+    val rightST = current.right
+    if (rightST != null && rightST.maximum > expectedMaximum) {
+      expectedMaximum = rightST.maximum
+    }
+    check(current.maximum.compareTo(expectedMaximum) == 0) {
+      "Maximum of node $current is ${current.maximum} but should be $expectedMaximum"
+    }
+
     this.validateAt(current.left)
     this.validateAt(current.right)
   }
@@ -337,60 +409,79 @@ class IntervalTree<S : Comparable<S>> private constructor(
   private fun validate() {
     if (this.validation) {
       this.validateAt(this.root)
+
+      val rootSize = this.root?.size ?: 0
+      check(rootSize == this.count) {
+        "Tree size $rootSize does not match the count ${this.count}"
+      }
     }
   }
 
-  @Throws(DuplicateIntervalException::class)
-  private fun create(
-    parent : Node<S>?,
-    current : Node<S>?,
-    interval : IntervalType<S>
-  ) : Node<S> {
+  /**
+   * Record `node` as the next node on the current path, along with the
+   * direction taken from it.
+   */
 
-    /*
-     * If the current node is null, we're creating a leaf of some kind.
-     */
+  private fun pathPush(
+    depth : Int,
+    node : Node<S>,
+    wentLeft : Boolean
+  ) {
+    if (depth == this.path.size) {
+      this.path = this.path.copyOf(this.path.size * 2)
+      this.pathLeft = this.pathLeft.copyOf(this.pathLeft.size * 2)
+    }
+    this.path[depth] = node
+    this.pathLeft[depth] = wentLeft
+  }
 
-    if (current == null) {
-      this.publish(IntervalTreeChangeType.Created(interval))
-      val newNode : Node<S> = Node(
-        interval = interval,
-        left = null,
-        parent = null,
-        right = null,
-        maximum = interval,
-        height = 0
-      )
-      newNode.setNewParent(parent)
-      newNode.updateMaximum()
-      return newNode
+  private fun pathClear(depth : Int) {
+    for (index in 0 until depth) {
+      this.path[index] = null
     }
+  }
 
-    when (interval.compare(current.interval)) {
-      IntervalComparison.EQUAL     -> {
-        throw DuplicateIntervalException()
-      }
+  /**
+   * Walk back up the current path from `depth - 1` to the root. At each
+   * node, the subtree that the path descended into is replaced with
+   * `replacement`, the node's height and maximum are recalculated, and
+   * the node is rebalanced. The (possibly new) root of each rebalanced
+   * subtree becomes the replacement for the level above.
+   */
 
-      IntervalComparison.LESS_THAN -> {
-        current.takeOwnershipLeft(
-          this.create(current, current.left, interval)
-        )
-      }
+  private fun rebalancePath(
+    depth : Int,
+    replacement : Node<S>?
+  ) {
+    var newSubtree = replacement
+    for (index in depth - 1 downTo 0) {
+      val current = this.path[index]!!
+      this.path[index] = null
 
-      IntervalComparison.MORE_THAN -> {
-        current.takeOwnershipRight(
-          this.create(current, current.right, interval)
-        )
+      if (this.pathLeft[index]) {
+        this.takeOwnershipLeft(current, newSubtree)
+      } else {
+        this.takeOwnershipRight(current, newSubtree)
       }
+      current.updateMaximum()
+      current.updateHeight()
+      current.updateSize()
+      newSubtree = this.balance(current)
     }
-
-    current.updateMaximum()
-    current.updateHeight()
-    return this.balance(current)
+    this.root = newSubtree
   }
 
   companion object {
 
+    private const val PATH_INITIAL_SIZE = 48
+
+    /*
+     * The relative cost of visiting a node during a rebuild, compared to
+     * visiting a node on an insertion path.
+     */
+
+    private const val REBUILD_FACTOR = 2L
+
     @JvmStatic
     fun <S : Comparable<S>> empty() : IntervalTreeDebuggableType<S> {
       return IntervalTree(
@@ -400,261 +491,1522 @@ class IntervalTree<S : Comparable<S>> private constructor(
       )
     }
 
-  }
+    /**
+     * Create a tree from a list of intervals that is sorted in strictly
+     * increasing order (and therefore contains no duplicates). The tree
+     * is built directly in linear time, with no rebalancing, and no change
+     * events are published.
+     *
+     * @param intervals The sorted intervals
+     *
+     * @return A tree containing exactly the given intervals
+     *
+     * @throws IllegalArgumentException If the intervals are not sorted in
+     * strictly increasing order
+     */
 
-  override fun setChangeListener(
-    listener : (IntervalTreeChangeType<S>) -> Unit
-  ) {
-    this.listener = listener
-  }
+    @JvmStatic
+    fun <S : Comparable<S>> fromSorted(
+      intervals : List<IntervalType<S>>
+    ) : IntervalTree<S> {
+      val elements =
+        if (intervals is RandomAccess) {
+          intervals
+        } else {
+          ArrayList(intervals)
+        }
 
-  override fun insert(value : IntervalType<S>) : Boolean {
-    try {
-      this.root = this.create(null, this.root, value)
-    } catch (e : DuplicateIntervalException) {
-      return false
+      for (index in 1 until elements.size) {
+        val previous = elements[index - 1]
+        val current = elements[index]
+        require(previous.compare(current) == IntervalComparison.LESS_THAN) {
+          "Interval $previous at index ${index - 1} must be < interval $current at index $index"
+        }
+      }
+
+      val tree = IntervalTree<S>(
+        root = buildBalanced(elements, 0, elements.size - 1),
+        listener = { },
+        validation = false
+      )
+      tree.count = elements.size
+      return tree
     }
 
-    this.validate()
-    return true
-  }
+    /**
+     * Create a tree from an iterator that yields intervals in strictly
+     * increasing order (and therefore yields no duplicates). The tree is
+     * built directly in linear time, with no rebalancing, and no change
+     * events are published.
+     *
+     * @param intervals The sorted intervals
+     *
+     * @return A tree containing exactly the given intervals
+     *
+     * @throws IllegalArgumentException If the intervals are not sorted in
+     * strictly increasing order
+     */
 
-  override fun remove(value : IntervalType<S>) : Boolean {
-    try {
-      this.root = this.removeAt(this.root, value)
-    } catch (e : NonexistentIntervalException) {
-      return false
+    @JvmStatic
+    fun <S : Comparable<S>> fromSorted(
+      intervals : Iterator<IntervalType<S>>
+    ) : IntervalTree<S> {
+      val elements = ArrayList<IntervalType<S>>()
+      while (intervals.hasNext()) {
+        elements.add(intervals.next())
+      }
+      return fromSorted(elements)
     }
 
-    this.validate()
-    return true
-  }
+    /**
+     * Create a tree from a collection of intervals in any order. The
+     * intervals are sorted and duplicates are removed, and the tree is then
+     * built as with [fromSorted].
+     *
+     * @param intervals The intervals
+     *
+     * @return A tree containing exactly the given intervals
+     */
 
-  @Throws(NonexistentIntervalException::class)
-  private fun removeAt(
-    current : Node<S>?,
-    interval : IntervalType<S>
-  ) : Node<S>? {
-    if (current == null) {
-      throw NonexistentIntervalException()
+    @JvmStatic
+    fun <S : Comparable<S>> fromUnsorted(
+      intervals : Collection<IntervalType<S>>
+    ) : IntervalTree<S> {
+      return fromSorted(sortedUnique(intervals))
     }
 
-    when (interval.compare(current.interval)) {
-      IntervalComparison.EQUAL     -> {
+    /**
+     * Join two trees into a single tree. Every interval in `left` must be
+     * less than every interval in `right`. The nodes of both trees are
+     * moved into the new tree, and both trees are left empty. The join
+     * takes time proportional to the difference in the heights of the two
+     * trees, and so is `O(log n)`. The new tree takes the listener and
+     * validation setting of `left`, and a single
+     * [IntervalTreeChangeType.Joined] event is published to it. If `right`
+     * has a different listener, the event is published to that listener
+     * as well, so that the listener of each emptied tree observes the join.
+     *
+     * @param left  The tree holding the lesser intervals
+     * @param right The tree holding the greater intervals
+     *
+     * @return A tree containing the intervals of both trees
+     *
+     * @throws IllegalArgumentException If the trees overlap, or are the
+     * same tree
+     */
 
-        /*
-         * If the current node has no children, then it is replaced with
-         * nothing.
-         */
+    @JvmStatic
+    fun <S : Comparable<S>> join(
+      left : IntervalTree<S>,
+      right : IntervalTree<S>
+    ) : IntervalTree<S> {
+      require(left !== right) {
+        "A tree cannot be joined with itself"
+      }
 
-        if (current.left == null && current.right == null) {
-          this.publish(Deleted("Leaf", interval))
-          return null
+      val leftMaximum = left.maximum()
+      val rightMinimum = right.minimum()
+      if (leftMaximum != null && rightMinimum != null) {
+        require(leftMaximum.compare(rightMinimum) == IntervalComparison.LESS_THAN) {
+          "Left maximum $leftMaximum must be < right minimum $rightMinimum"
         }
+      }
 
-        /*
-         * If the current node has only a single child, then the node is
-         * replaced by its own child.
-         */
-
-        if ((current.left != null) xor (current.right != null)) {
-          return if (current.left != null) {
-            this.publish(Deleted("SingleParentL", interval))
-            current.left
-          } else {
-            this.publish(Deleted("SingleParentR", interval))
-            current.right
-          }
-        }
+      val leftCount = left.count
+      val rightCount = right.count
+      val tree = IntervalTree(
+        root = null,
+        listener = left.listener,
+        validation = left.validation
+      )
 
-        /*
-         * The current node must have two children. The current node is
-         * effectively replaced by the successor (the node with the smallest
-         * value greater than the current node). This is handled by simply
-         * setting the value of the current node to that of the successor,
-         * and then removing the original successor from the right subtree.
-         */
-
-        val successor : Node<S> = this.findMinimum(current.right!!)
-        current.interval = successor.interval
-        current.takeOwnershipRight(
-          this.removeAt(current.right, successor.interval)
-        )
-        current.updateMaximum()
-        current.updateHeight()
-        this.publish(Deleted("Branch", interval))
-        return this.balance(current)
+      tree.batching = true
+      try {
+        tree.root = tree.joinTrees(left.root, right.root)
+      } finally {
+        tree.batching = false
       }
-
-      IntervalComparison.LESS_THAN -> {
-        current.takeOwnershipLeft(this.removeAt(current.left, interval))
-        current.updateMaximum()
-        current.updateHeight()
-        return this.balance(current)
+      tree.count = leftCount + rightCount
+      left.detach()
+      right.detach()
+
+      val joined = IntervalTreeChangeType.Joined<S>(leftCount, rightCount)
+      tree.publish(joined)
+      if (right.listener !== left.listener) {
+        right.publish(joined)
       }
+      tree.validate()
+      return tree
+    }
+
+    /**
+     * Sort the given intervals and remove duplicates.
+     */
 
-      IntervalComparison.MORE_THAN -> {
-        current.takeOwnershipRight(this.removeAt(current.right, interval))
-        current.updateMaximum()
-        current.updateHeight()
-        return this.balance(current)
+    private fun <S : Comparable<S>> sortedUnique(
+      intervals : Collection<IntervalType<S>>
+    ) : List<IntervalType<S>> {
+      val sorted = ArrayList(intervals)
+      sorted.sort()
+
+      var unique = 0
+      for (index in sorted.indices) {
+        val current = sorted[index]
+        if (unique == 0 || sorted[unique - 1].compare(current) != IntervalComparison.EQUAL) {
+          sorted[unique] = current
+          ++unique
+        }
       }
+      return sorted.subList(0, unique)
     }
-  }
 
-  private fun findMinimum(current : Node<S>) : Node<S> {
-    return if (current.left != null) {
-      this.findMinimum(current.left!!)
-    } else {
-      current
+    private fun <S : Comparable<S>> newLeaf(
+      interval : IntervalType<S>
+    ) : Node<S> {
+      return Node(
+        interval = interval,
+        left = null,
+        right = null,
+        maximum = interval.upper(),
+        height = 1,
+        size = 1
+      )
     }
-  }
 
-  override fun find(value : IntervalType<S>) : Boolean {
-    return this.findAt(this.root, value)
-  }
-
-  private fun findAt(
-    current : Node<S>?,
-    interval : IntervalType<S>
-  ) : Boolean {
-    return if (current == null) {
-      false
-    } else when (interval.compare(current.interval)) {
-      IntervalComparison.EQUAL     -> {
-        true
-      }
+    /**
+     * Link the existing nodes in the inclusive range `[low, high]` into a
+     * perfectly balanced subtree, recalculating the heights, sizes, and
+     * maximums of every node.
+     */
 
-      IntervalComparison.LESS_THAN -> {
-        this.findAt(current.left, interval)
+    private fun <S : Comparable<S>> linkBalanced(
+      nodes : Array<Node<S>?>,
+      low : Int,
+      high : Int
+    ) : Node<S>? {
+      if (low > high) {
+        return null
       }
 
-      IntervalComparison.MORE_THAN -> {
-        this.findAt(current.right, interval)
-      }
+      val middle = (low + high) ushr 1
+      val node = nodes[middle]!!
+      node.left = linkBalanced(nodes, low, middle - 1)
+      node.right = linkBalanced(nodes, middle + 1, high)
+      node.updateMaximum()
+      node.updateHeight()
+      node.updateSize()
+      return node
     }
-  }
 
-  override fun enableInternalValidation(enabled : Boolean) {
-    this.validation = enabled
-  }
+    /**
+     * Estimate whether merging `added` intervals into a tree of `existing`
+     * intervals by rebuilding the entire tree is cheaper than inserting
+     * the intervals one at a time. Each insertion descends and rebalances
+     * a path of length ~log2(n), whereas a rebuild visits every node a
+     * small constant number of times.
+     */
 
-  override fun clear() {
-    this.publish(IntervalTreeChangeType.Cleared())
-    this.root = null
-  }
+    private fun preferRebuild(
+      existing : Int,
+      added : Int
+    ) : Boolean {
+      val total = existing.toLong() + added.toLong()
+      val depth = 64 - java.lang.Long.numberOfLeadingZeros(total)
+      return added.toLong() * depth.toLong() >= REBUILD_FACTOR * total
+    }
 
-  override fun minimum() : IntervalType<S>? {
-    return this.minimumAt(this.root)
-  }
+    /**
+     * Build a perfectly balanced subtree from the elements in the
+     * inclusive range `[low, high]`. The heights of the two subtrees of
+     * every node differ by at most one, so the result is a valid AVL tree.
+     */
 
-  private fun minimumAt(current : Node<S>?) : IntervalType<S>? {
-    if (current == null) {
-      return null
-    }
-    return if (current.left == null) {
-      current.interval
-    } else {
-      this.minimumAt(current.left)
+    private fun <S : Comparable<S>> buildBalanced(
+      elements : List<IntervalType<S>>,
+      low : Int,
+      high : Int
+    ) : Node<S>? {
+      if (low > high) {
+        return null
+      }
+
+      val middle = (low + high) ushr 1
+      val interval = elements[middle]
+      val node = Node(
+        interval = interval,
+        left = buildBalanced(elements, low, middle - 1),
+        right = buildBalanced(elements, middle + 1, high),
+        maximum = interval.upper(),
+        height = 1,
+        size = 1
+      )
+      node.updateMaximum()
+      node.updateHeight()
+      node.updateSize()
+      return node
     }
   }
 
-  override fun maximum() : IntervalType<S>? {
-    return this.maximumAt(this.root)
+  override fun setChangeListener(
+    listener : (IntervalTreeChangeType<S>) -> Unit
+  ) {
+    this.listener = listener
   }
 
-  private fun maximumAt(current : Node<S>?) : IntervalType<S>? {
-    if (current == null) {
-      return null
-    }
-    return if (current.right == null) {
-      current.interval
-    } else {
-      this.maximumAt(current.right)
+  override fun insert(value : IntervalType<S>) : Boolean {
+    val inserted = this.insertNode(value)
+    if (inserted) {
+      this.validate()
     }
+    return inserted
   }
 
-  override val size : Int
-    get() = this.sizeTraverse(this.root)
+  private fun insertNode(value : IntervalType<S>) : Boolean {
 
-  override fun isEmpty() : Boolean {
-    return this.root == null
-  }
+    /*
+     * Descend to the position at which the new leaf belongs, recording
+     * the path taken.
+     */
 
-  private fun all(current : Node<S>?) : Stream<Node<S>> {
-    if (current == null) {
-      return Stream.empty()
-    }
+    var depth = 0
+    var current = this.root
+    while (current != null) {
+      when (value.compare(current.interval)) {
+        IntervalComparison.EQUAL     -> {
+          this.pathClear(depth)
+          return false
+        }
 
-    val currentStream : Stream<Node<S>> =
-      Stream.of(current)
-    val leftStream : Stream<Node<S>> =
-      this.all(current.left)
-    val rightStream : Stream<Node<S>> =
-      this.all(current.right)
+        IntervalComparison.LESS_THAN -> {
+          this.pathPush(depth, current, true)
+          current = current.left
+        }
 
-    return Stream.of(leftStream, currentStream, rightStream)
-      .flatMap(Function.identity())
-  }
+        IntervalComparison.MORE_THAN -> {
+          this.pathPush(depth, current, false)
+          current = current.right
+        }
+      }
+      ++depth
+    }
 
-  override fun iterator() : Iterator<IntervalType<S>> {
-    val stream : Stream<Node<S>> = this.all(this.root)
-    return stream.map { x -> x.interval }.iterator()
+    this.publish(IntervalTreeChangeType.Created(value))
+    this.rebalancePath(depth, newLeaf(value))
+    ++this.count
+    ++this.modCount
+    return true
   }
 
-  override fun overlapping(
-    interval : IntervalType<S>
-  ) : Collection<IntervalType<S>> {
-    return if (this.root == null) {
-      listOf()
-    } else {
-      this.overlappingAt(this.root!!, interval)
-        .collect(Collectors.toList())
+  /**
+   * Add all the given intervals to the tree as a single batch. The batch
+   * is sorted and duplicates are removed. If the batch is small relative
+   * to the tree, the intervals are inserted one at a time. Otherwise, the
+   * sorted batch is merged with the existing nodes of the tree and the
+   * tree is relinked into a perfectly balanced shape in a single pass.
+   * In both cases, the individual creation and rebalancing events are
+   * suppressed, and a single
+   * [IntervalTreeChangeType.BatchInserted] event is published.
+   */
+
+  override fun addAll(value : Collection<IntervalType<S>>) : Boolean {
+    if (value.isEmpty()) {
+      return false
+    }
+
+    val batch = sortedUnique(value)
+    val added = ArrayList<IntervalType<S>>(batch.size)
+    val type : String
+
+    this.batching = true
+    try {
+      if (preferRebuild(this.count, batch.size)) {
+        type = "Rebuild"
+        this.mergeRebuild(batch, added)
+      } else {
+        type = "Insert"
+        for (interval in batch) {
+          if (this.insertNode(interval)) {
+            added.add(interval)
+          }
+        }
+      }
+    } finally {
+      this.batching = false
+    }
+
+    if (added.isEmpty()) {
+      return false
     }
+
+    this.publish(IntervalTreeChangeType.BatchInserted(type, added))
+    this.validate()
+    return true
   }
 
-  private fun overlappingAt(
-    current : Node<S>,
-    interval : IntervalType<S>
-  ) : Stream<IntervalType<S>> {
+  /**
+   * Merge the sorted, duplicate-free `batch` with the nodes of the tree,
+   * and relink all the nodes into a balanced tree. Intervals that were not
+   * already present are appended to `added`.
+   */
+
+  private fun mergeRebuild(
+    batch : List<IntervalType<S>>,
+    added : MutableList<IntervalType<S>>
+  ) {
+    val existing = this.count
+    val merged = arrayOfNulls<Node<S>>(existing + batch.size)
+    var mergedCount = 0
+    var batchIndex = 0
 
     /*
-     * Test the current node's interval against the requested interval. The
-     * current node's interval is only returned if it overlaps the requested
-     * interval. Note that we don't check against the maximum: The maximum is
-     * used to determine if recursion should proceed into child nodes.
+     * Walk the existing nodes in order using the path array as an explicit
+     * stack, emitting the new intervals that fall before each node.
      */
 
-    val currentStream : Stream<IntervalType<S>> =
-      if (interval.overlaps(current.interval)) {
-        Stream.of(current.interval)
-      } else {
-        Stream.empty()
+    var depth = 0
+    var current = this.root
+    while (current != null || depth > 0) {
+      while (current != null) {
+        this.pathPush(depth, current, true)
+        ++depth
+        current = current.left
       }
 
-    val lst = current.left
-    val leftStream : Stream<IntervalType<S>> =
-      if (lst != null && lst.maximum.upper() >= interval.lower()) {
-        this.overlappingAt(lst, interval)
-      } else {
-        Stream.empty()
-      }
+      --depth
+      val node = this.path[depth]!!
+      this.path[depth] = null
 
-    val rst = current.right
-    val rightStream : Stream<IntervalType<S>> =
-      if (rst != null) {
-        this.overlappingAt(rst, interval)
-      } else {
-        Stream.empty()
+      while (batchIndex < batch.size) {
+        val interval = batch[batchIndex]
+        val comparison = interval.compare(node.interval)
+        if (comparison == IntervalComparison.MORE_THAN) {
+          break
+        }
+        if (comparison == IntervalComparison.LESS_THAN) {
+          merged[mergedCount++] = newLeaf(interval)
+          added.add(interval)
+        }
+        ++batchIndex
       }
 
-    return Stream.of(leftStream, currentStream, rightStream)
-      .flatMap { x -> x }
-  }
+      merged[mergedCount++] = node
+      current = node.right
+    }
+
+    while (batchIndex < batch.size) {
+      val interval = batch[batchIndex]
+      merged[mergedCount++] = newLeaf(interval)
+      added.add(interval)
+      ++batchIndex
+    }
+
+    this.root = linkBalanced(merged, 0, mergedCount - 1)
+    this.count = mergedCount
+    ++this.modCount
+  }
+
+  override fun remove(value : IntervalType<S>) : Boolean {
+    val removed = this.removeNode(value)
+    if (removed) {
+      this.validate()
+    }
+    return removed
+  }
+
+  private fun removeNode(value : IntervalType<S>) : Boolean {
+
+    /*
+     * Descend to the node holding the interval, recording the path taken.
+     */
+
+    var depth = 0
+    var current = this.root
+    while (true) {
+      if (current == null) {
+        this.pathClear(depth)
+        return false
+      }
+
+      when (value.compare(current.interval)) {
+        IntervalComparison.EQUAL     -> {
+          break
+        }
+
+        IntervalComparison.LESS_THAN -> {
+          this.pathPush(depth, current, true)
+          current = current.left
+        }
+
+        IntervalComparison.MORE_THAN -> {
+          this.pathPush(depth, current, false)
+          current = current.right
+        }
+      }
+      ++depth
+    }
+
+    val target : Node<S> = current!!
+    val leftST = target.left
+    val rightST = target.right
+
+    /*
+     * If the node has no children, then it is replaced with nothing.
+     * If the node has only a single child, then the node is replaced by
+     * its own child.
+     */
+
+    if (leftST == null || rightST == null) {
+      if (leftST == null && rightST == null) {
+        this.publish(Deleted("Leaf", value))
+      } else if (leftST != null) {
+        this.publish(Deleted("SingleParentL", value))
+      } else {
+        this.publish(Deleted("SingleParentR", value))
+      }
+      this.rebalancePath(depth, leftST ?: rightST)
+      --this.count
+      ++this.modCount
+      return true
+    }
+
+    /*
+     * The node must have two children. The node is effectively replaced by
+     * the successor (the node with the smallest value greater than the
+     * node). This is handled by setting the value of the node to that of
+     * the successor, and then unlinking the successor from the right
+     * subtree. The successor has no left child, so it is replaced by its
+     * right child.
+     */
+
+    this.pathPush(depth, target, false)
+    ++depth
+
+    var successor : Node<S> = rightST
+    while (true) {
+      val next = successor.left ?: break
+      this.pathPush(depth, successor, true)
+      ++depth
+      successor = next
+    }
+
+    if (successor.right == null) {
+      this.publish(Deleted("Leaf", successor.interval))
+    } else {
+      this.publish(Deleted("SingleParentR", successor.interval))
+    }
+
+    target.interval = successor.interval
+    this.rebalancePath(depth, successor.right)
+    --this.count
+    ++this.modCount
+    this.publish(Deleted("Branch", value))
+    return true
+  }
+
+  override fun removeOverlapping(interval : IntervalType<S>) : Int {
+    return this.removeRange("Overlapping", interval, true)
+  }
+
+  override fun removeContainedIn(interval : IntervalType<S>) : Int {
+    return this.removeRange("ContainedIn", interval, false)
+  }
+
+  /**
+   * Remove the intervals that overlap `interval` (if `overlapping` is
+   * `true`) or that are contained in `interval` (otherwise). The tree is
+   * split into the nodes with lower bounds less than `interval.lower()`,
+   * the nodes with lower bounds within `interval` (the middle), and the
+   * nodes with lower bounds greater than `interval.upper()`. Every interval
+   * in the middle overlaps `interval`, and every interval contained in
+   * `interval` is in the middle, so the middle is filtered and relinked,
+   * and the three parts are joined again. When removing overlapping
+   * intervals, the intervals in the lower part that reach into `interval`
+   * are also removed from that part before the join. Bounds are compared
+   * with [IntervalBounds], and so agree with [IntervalType.overlaps]. A
+   * single [IntervalTreeChangeType.BatchDeleted] event is published.
+   *
+   * The splits and joins take `O(log n)` time, and filtering the middle
+   * takes time proportional to its size `m`. For contained intervals the
+   * total is therefore `O(log n + m)`; `m` exceeds the number removed only
+   * by the intervals that begin within `interval` but extend past it. For
+   * overlapping intervals every node in the middle is removed, and the `s`
+   * intervals that begin before `interval` and reach into it cost a further
+   * `O(min(s log n, n))`, as they are not contiguous in the tree.
+   */
+
+  private fun removeRange(
+    type : String,
+    interval : IntervalType<S>,
+    overlapping : Boolean
+  ) : Int {
+    if (!this.anyOverlapping(interval)) {
+      return 0
+    }
+
+    val lower = interval.lower()
+    val upper = interval.upper()
+    val removed = ArrayList<IntervalType<S>>()
+
+    this.batching = true
+    try {
+      val outer = this.splitWhere(this.root) { x ->
+        IntervalBounds.lessThan(x.lower(), lower)
+      }
+      val inner = this.splitWhere(outer.second) { x ->
+        IntervalBounds.atMost(x.lower(), upper)
+      }
+
+      var below = outer.first
+      if (overlapping && below != null) {
+        below = this.removeReaching(below, interval, removed)
+      }
+
+      val middleRoot = inner.first
+      val middle = this.inOrderNodes(middleRoot, middleRoot?.size ?: 0)
+      var kept = 0
+      for (node in middle) {
+        val x = node!!.interval
+        if (overlapping || IntervalBounds.atMost(x.upper(), upper)) {
+          removed.add(x)
+        } else {
+          middle[kept++] = node
+        }
+      }
+
+      val joined = this.joinTrees(below, linkBalanced(middle, 0, kept - 1))
+      this.root = this.joinTrees(joined, inner.second)
+    } finally {
+      this.batching = false
+    }
+
+    this.count = this.root?.size ?: 0
+    ++this.modCount
+
+    if (removed.isNotEmpty()) {
+      this.publish(IntervalTreeChangeType.BatchDeleted(type, removed))
+    }
+    this.validate()
+    return removed.size
+  }
+
+  /**
+   * Remove the intervals in the subtree `current` that overlap `interval`,
+   * adding them to `removed` in order. Every interval in the subtree
+   * begins before `interval`, so these are the intervals that reach into
+   * `interval`, and are found by the pruned overlap walk. If only a few
+   * intervals are to be removed relative to the size of the subtree, they
+   * are removed one at a time. Otherwise, the surviving nodes are collected
+   * in a single in-order pass and relinked into a balanced subtree.
+   * Because the matches are a subsequence of the nodes, the nodes to be
+   * removed can be recognized by identity without comparing intervals.
+   *
+   * @return The new root of the subtree
+   */
+
+  private fun removeReaching(
+    current : Node<S>,
+    interval : IntervalType<S>,
+    removed : MutableList<IntervalType<S>>
+  ) : Node<S>? {
+    val matches = ArrayList<IntervalType<S>>()
+    this.overlappingAt(current, interval, interval.lower(), interval.upper()) { x ->
+      matches.add(x)
+      true
+    }
+    if (matches.isEmpty()) {
+      return current
+    }
+    removed.addAll(matches)
+
+    val size = current.size
+    if (preferRebuild(size - matches.size, matches.size)) {
+      val nodes = this.inOrderNodes(current, size)
+      var kept = 0
+      var matchIndex = 0
+      for (node in nodes) {
+        if (matchIndex < matches.size && node!!.interval === matches[matchIndex]) {
+          ++matchIndex
+        } else {
+          nodes[kept++] = node
+        }
+      }
+      return linkBalanced(nodes, 0, kept - 1)
+    }
+
+    /*
+     * Remove the matches from the subtree using the ordinary removal
+     * path, treating the subtree as the whole tree for the duration.
+     */
+
+    val savedRoot = this.root
+    this.root = current
+    try {
+      for (x in matches) {
+        this.removeNode(x)
+      }
+      return this.root
+    } finally {
+      this.root = savedRoot
+    }
+  }
+
+  override fun removeIf(predicate : Predicate<in IntervalType<S>>) : Boolean {
+    val nodes = this.inOrderNodes()
+    val removed = ArrayList<IntervalType<S>>()
+    var kept = 0
+    for (node in nodes) {
+      val interval = node!!.interval
+      if (predicate.test(interval)) {
+        removed.add(interval)
+      } else {
+        nodes[kept++] = node
+      }
+    }
+
+    if (removed.isEmpty()) {
+      return false
+    }
+
+    this.relink(nodes, kept)
+    this.publish(IntervalTreeChangeType.BatchDeleted("If", removed))
+    this.validate()
+    return true
+  }
+
+  /**
+   * @return All the `size` nodes of the subtree `root`, in order
+   */
+
+  private fun inOrderNodes(
+    root : Node<S>? = this.root,
+    size : Int = this.count
+  ) : Array<Node<S>?> {
+    val nodes = arrayOfNulls<Node<S>>(size)
+    var index = 0
+    var depth = 0
+    var current = root
+    while (current != null || depth > 0) {
+      while (current != null) {
+        this.pathPush(depth, current, true)
+        ++depth
+        current = current.left
+      }
+
+      --depth
+      val node = this.path[depth]!!
+      this.path[depth] = null
+      nodes[index++] = node
+      current = node.right
+    }
+    return nodes
+  }
+
+  /**
+   * Split the tree at `key`. The intervals with lower bounds less than
+   * `key` are moved into one new tree, and the intervals with lower bounds
+   * greater than or equal to `key` are moved into another. This tree is
+   * left empty. The split takes `O(log n)` time, and the new trees take
+   * the listener and validation setting of this tree. A single
+   * [IntervalTreeChangeType.Split] event is published to the listener of
+   * this tree, which is shared by the new trees.
+   *
+   * @param key The key
+   *
+   * @return The trees below and above `key`
+   */
+
+  fun split(key : S) : IntervalTreeSplit<S> {
+    val roots : Pair<Node<S>?, Node<S>?>
+    this.batching = true
+    try {
+      roots = this.splitWhere(this.root) { x -> x.lower() < key }
+    } finally {
+      this.batching = false
+    }
+
+    val below = IntervalTree(
+      root = roots.first,
+      listener = this.listener,
+      validation = this.validation
+    )
+    below.count = roots.first?.size ?: 0
+
+    val above = IntervalTree(
+      root = roots.second,
+      listener = this.listener,
+      validation = this.validation
+    )
+    above.count = roots.second?.size ?: 0
+
+    this.detach()
+    this.publish(IntervalTreeChangeType.Split(key, below.count, above.count))
+    below.validate()
+    above.validate()
+    return IntervalTreeSplit(below, above)
+  }
+
+  /**
+   * Remove all nodes from this tree without publishing an event. Used
+   * when the nodes have been moved into another tree.
+   */
+
+  private fun detach() {
+    this.root = null
+    this.count = 0
+    ++this.modCount
+  }
+
+  /**
+   * Split the subtree at `current` into the subtrees of nodes for which
+   * `below` returns `true`, and `false`. The predicate must be monotone
+   * over the nodes in order: it must return `true` for a prefix of the
+   * nodes, and `false` for the rest.
+   */
+
+  private fun splitWhere(
+    current : Node<S>?,
+    below : (IntervalType<S>) -> Boolean
+  ) : Pair<Node<S>?, Node<S>?> {
+    if (current == null) {
+      return Pair(null, null)
+    }
+
+    val leftST = current.left
+    val rightST = current.right
+    return if (below(current.interval)) {
+      val parts = this.splitWhere(rightST, below)
+      Pair(this.joinAt(leftST, current, parts.first), parts.second)
+    } else {
+      val parts = this.splitWhere(leftST, below)
+      Pair(parts.first, this.joinAt(parts.second, current, rightST))
+    }
+  }
+
+  /**
+   * Join two subtrees where every interval in `left` is less than every
+   * interval in `right`.
+   */
+
+  private fun joinTrees(
+    left : Node<S>?,
+    right : Node<S>?
+  ) : Node<S>? {
+    if (left == null) {
+      return right
+    }
+    if (right == null) {
+      return left
+    }
+
+    val parts = this.splitLast(left)
+    return this.joinAt(parts.first, parts.second, right)
+  }
+
+  /**
+   * Unlink the greatest node from the subtree at `current`, returning the
+   * remaining subtree and the unlinked node.
+   */
+
+  private fun splitLast(
+    current : Node<S>
+  ) : Pair<Node<S>?, Node<S>> {
+    val rightST = current.right ?: return Pair(current.left, current)
+    val parts = this.splitLast(rightST)
+    this.takeOwnershipRight(current, parts.first)
+    current.updateMaximum()
+    current.updateHeight()
+    current.updateSize()
+    return Pair(this.balance(current), parts.second)
+  }
+
+  /**
+   * Join the subtrees `left` and `right` using `middle` as the pivot.
+   * Every interval in `left` must be less than the interval in `middle`,
+   * which must be less than every interval in `right`. The taller subtree
+   * is descended along its inner spine until a subtree of (almost) equal
+   * height to the shorter subtree is found, and the pivot is placed there.
+   * The nodes along the descent are then rebalanced on the way back up.
+   * The time taken is proportional to the difference in the heights of
+   * the subtrees.
+   */
+
+  private fun joinAt(
+    left : Node<S>?,
+    middle : Node<S>,
+    right : Node<S>?
+  ) : Node<S> {
+    val heightL = left?.height ?: 0
+    val heightR = right?.height ?: 0
+
+    if (heightL > heightR + 1) {
+      val l = left!!
+      this.takeOwnershipRight(l, this.joinAt(l.right, middle, right))
+      l.updateMaximum()
+      l.updateHeight()
+      l.updateSize()
+      return this.balance(l)
+    }
+
+    if (heightR > heightL + 1) {
+      val r = right!!
+      this.takeOwnershipLeft(r, this.joinAt(left, middle, r.left))
+      r.updateMaximum()
+      r.updateHeight()
+      r.updateSize()
+      return this.balance(r)
+    }
+
+    middle.left = null
+    middle.right = null
+    this.takeOwnershipLeft(middle, left)
+    this.takeOwnershipRight(middle, right)
+    middle.updateMaximum()
+    middle.updateHeight()
+    middle.updateSize()
+    return middle
+  }
+
+  /**
+   * Replace the contents of the tree with the first `size` nodes of
+   * `nodes`, linked into a balanced tree. The nodes must be in order.
+   */
+
+  private fun relink(
+    nodes : Array<Node<S>?>,
+    size : Int
+  ) {
+    this.root = linkBalanced(nodes, 0, size - 1)
+    this.count = size
+    ++this.modCount
+  }
+
+  override fun find(value : IntervalType<S>) : Boolean {
+    var current = this.root
+    while (current != null) {
+      current = when (value.compare(current.interval)) {
+        IntervalComparison.EQUAL     -> return true
+        IntervalComparison.LESS_THAN -> current.left
+        IntervalComparison.MORE_THAN -> current.right
+      }
+    }
+    return false
+  }
+
+  override fun enableInternalValidation(enabled : Boolean) {
+    this.validation = enabled
+  }
+
+  override fun clear() {
+    this.publish(IntervalTreeChangeType.Cleared())
+    this.root = null
+    this.count = 0
+    ++this.modCount
+  }
+
+  /**
+   * @return The greatest upper bound of any interval in the tree, if any
+   */
+
+  internal fun maximumUpper() : S? {
+    return this.root?.maximum
+  }
+
+  /**
+   * @param rank The rank, in the range `[0, size)`
+   *
+   * @return The interval with the given rank; the interval that has
+   * exactly `rank` intervals less than it in the tree
+   */
+
+  internal fun select(rank : Int) : IntervalType<S> {
+    require(rank in 0 until this.count) {
+      "Rank $rank must be in the range [0, ${this.count})"
+    }
+
+    var remaining = rank
+    var current = this.root!!
+    while (true) {
+      val leftSize = current.left?.size ?: 0
+      current = when {
+        remaining < leftSize  -> current.left!!
+        remaining == leftSize -> return current.interval
+        else                  -> {
+          remaining -= leftSize + 1
+          current.right!!
+        }
+      }
+    }
+  }
+
+  override fun minimum() : IntervalType<S>? {
+    var current = this.root ?: return null
+    while (true) {
+      current = current.left ?: return current.interval
+    }
+  }
 
-  private class DuplicateIntervalException : Exception()
+  override fun maximum() : IntervalType<S>? {
+    var current = this.root ?: return null
+    while (true) {
+      current = current.right ?: return current.interval
+    }
+  }
+
+  override val size : Int
+    get() = this.count
+
+  override fun isEmpty() : Boolean {
+    return this.count == 0
+  }
+
+  override fun iterator() : MutableIterator<IntervalType<S>> {
+    return NodeIterator()
+  }
+
+  /**
+   * An in-order iterator over the tree. The iterator holds a stack of the
+   * nodes whose intervals have yet to be returned, and whose right
+   * subtrees have yet to be visited; the stack is never deeper than the
+   * height of the tree. The iterator fails with a
+   * [ConcurrentModificationException] if the tree is modified other than
+   * through the iterator.
+   */
+
+  private inner class NodeIterator : MutableIterator<IntervalType<S>> {
+    private var stack : Array<Node<S>?> =
+      arrayOfNulls((this@IntervalTree.root?.height ?: 0) + 1)
+    private var stackSize : Int = 0
+    private var expectedModCount : Int = this@IntervalTree.modCount
+    private var last : IntervalType<S>? = null
+
+    init {
+      this.pushLeftSpine(this@IntervalTree.root)
+    }
+
+    private fun push(node : Node<S>) {
+      if (this.stackSize == this.stack.size) {
+        this.stack = this.stack.copyOf(this.stack.size * 2)
+      }
+      this.stack[this.stackSize] = node
+      ++this.stackSize
+    }
+
+    private fun pushLeftSpine(node : Node<S>?) {
+      var current = node
+      while (current != null) {
+        this.push(current)
+        current = current.left
+      }
+    }
+
+    private fun checkModification() {
+      if (this.expectedModCount != this@IntervalTree.modCount) {
+        throw ConcurrentModificationException()
+      }
+    }
+
+    override fun hasNext() : Boolean {
+      this.checkModification()
+      return this.stackSize > 0
+    }
+
+    override fun next() : IntervalType<S> {
+      this.checkModification()
+      if (this.stackSize == 0) {
+        throw NoSuchElementException()
+      }
+
+      --this.stackSize
+      val node = this.stack[this.stackSize]!!
+      this.stack[this.stackSize] = null
+      this.pushLeftSpine(node.right)
+      this.last = node.interval
+      return node.interval
+    }
+
+    override fun remove() {
+      this.checkModification()
+      val removing = this.last
+      check(removing != null) {
+        "next() has not been called, or remove() has already been called"
+      }
+
+      this@IntervalTree.remove(removing)
+      this.expectedModCount = this@IntervalTree.modCount
+      this.last = null
+
+      /*
+       * Removal may rebalance the tree, and may move intervals between
+       * nodes, so the stack is rebuilt by searching for the nodes that
+       * hold the intervals after the removed interval.
+       */
+
+      this.stack.fill(null, 0, this.stackSize)
+      this.stackSize = 0
+
+      var current = this@IntervalTree.root
+      while (current != null) {
+        val cmp = current.interval.compare(removing)
+        current = if (cmp == IntervalComparison.MORE_THAN) {
+          this.push(current)
+          current.left
+        } else {
+          current.right
+        }
+      }
+    }
+  }
+
+  override fun spliterator() : Spliterator<IntervalType<S>> {
+    return NodeSpliterator(0, this.count, this.modCount)
+  }
+
+  /**
+   * An in-order spliterator over the intervals with ranks in the range
+   * `[origin, fence)`. Each node holds the size of its subtree, and so the
+   * spliterator splits by rank: the first half of the remaining ranks is
+   * handed to the new spliterator in `O(1)`, and each spliterator locates
+   * its first node in `O(log n)` when traversal begins. Both halves are
+   * therefore always exactly sized. The spliterator fails with a
+   * [ConcurrentModificationException] if the tree is modified after the
+   * spliterator is created.
+   */
+
+  private inner class NodeSpliterator(
+    private var origin : Int,
+    private val fence : Int,
+    private val expectedModCount : Int
+  ) : Spliterator<IntervalType<S>> {
+
+    /*
+     * The nodes whose intervals have yet to be returned, and whose right
+     * subtrees have yet to be visited, as in NodeIterator. The stack is
+     * built on the first traversal, and discarded when the spliterator is
+     * split.
+     */
+
+    private var stack : Array<Node<S>?>? = null
+    private var stackSize : Int = 0
+
+    private fun checkModification() {
+      if (this.expectedModCount != this@IntervalTree.modCount) {
+        throw ConcurrentModificationException()
+      }
+    }
+
+    private fun push(
+      stack : Array<Node<S>?>,
+      node : Node<S>
+    ) : Array<Node<S>?> {
+      val target =
+        if (this.stackSize == stack.size) {
+          stack.copyOf(stack.size * 2)
+        } else {
+          stack
+        }
+      target[this.stackSize] = node
+      ++this.stackSize
+      return target
+    }
+
+    /*
+     * Push the nodes on the path from the root to the node with rank
+     * `origin`, keeping only the nodes at which the path turns left (and
+     * the target node itself).
+     */
+
+    private fun seek() : Array<Node<S>?> {
+      var stack = arrayOfNulls<Node<S>>(
+        (this@IntervalTree.root?.height ?: 0) + 1
+      )
+      var remaining = this.origin
+      var current = this@IntervalTree.root
+      while (current != null) {
+        val leftSize = current.left?.size ?: 0
+        current = when {
+          remaining < leftSize  -> {
+            stack = this.push(stack, current)
+            current.left
+          }
+          remaining == leftSize -> {
+            stack = this.push(stack, current)
+            null
+          }
+          else                  -> {
+            remaining -= leftSize + 1
+            current.right
+          }
+        }
+      }
+      return stack
+    }
+
+    private fun nextNode() : Node<S> {
+      var stack = this.stack ?: this.seek()
+      --this.stackSize
+      val node = stack[this.stackSize]!!
+      stack[this.stackSize] = null
+
+      var current = node.right
+      while (current != null) {
+        stack = this.push(stack, current)
+        current = current.left
+      }
+
+      this.stack = stack
+      ++this.origin
+      return node
+    }
+
+    override fun tryAdvance(action : Consumer<in IntervalType<S>>) : Boolean {
+      this.checkModification()
+      if (this.origin >= this.fence) {
+        return false
+      }
+      action.accept(this.nextNode().interval)
+      return true
+    }
+
+    override fun forEachRemaining(action : Consumer<in IntervalType<S>>) {
+      this.checkModification()
+      while (this.origin < this.fence) {
+        action.accept(this.nextNode().interval)
+      }
+      this.checkModification()
+    }
+
+    override fun trySplit() : Spliterator<IntervalType<S>>? {
+      this.checkModification()
+      val middle = (this.origin + this.fence) ushr 1
+      if (middle <= this.origin) {
+        return null
+      }
+
+      val prefix = NodeSpliterator(this.origin, middle, this.expectedModCount)
+      this.origin = middle
+      this.stack = null
+      this.stackSize = 0
+      return prefix
+    }
+
+    override fun estimateSize() : Long {
+      return (this.fence - this.origin).toLong()
+    }
+
+    override fun characteristics() : Int {
+      return Spliterator.SIZED or
+        Spliterator.SUBSIZED or
+        Spliterator.ORDERED or
+        Spliterator.SORTED or
+        Spliterator.DISTINCT or
+        Spliterator.NONNULL
+    }
+
+    /*
+     * The intervals are in their natural order.
+     */
+
+    override fun getComparator() : Comparator<in IntervalType<S>>? {
+      return null
+    }
+  }
+
+  override fun overlapping(
+    interval : IntervalType<S>
+  ) : Collection<IntervalType<S>> {
+    val output = ArrayList<IntervalType<S>>()
+    this.forEachOverlappingWhile(interval) { x ->
+      output.add(x)
+    }
+    return output
+  }
+
+  override fun forEachOverlappingWhile(
+    interval : IntervalType<S>,
+    action : (IntervalType<S>) -> Boolean
+  ) : Boolean {
+    val current = this.root ?: return true
+    return this.overlappingAt(
+      current,
+      interval,
+      interval.lower(),
+      interval.upper(),
+      action
+    )
+  }
 
-  private class NonexistentIntervalException : Exception()
+  private fun overlappingAt(
+    current : Node<S>,
+    interval : IntervalType<S>,
+    lower : S,
+    upper : S,
+    action : (IntervalType<S>) -> Boolean
+  ) : Boolean {
+
+    /*
+     * The maximum is used to determine if recursion should proceed into
+     * the left child: if no interval in the left subtree ends at or after
+     * the lower bound of the requested interval, then nothing in the left
+     * subtree can overlap.
+     */
+
+    val lst = current.left
+    if (lst != null && IntervalBounds.atLeast(lst.maximum, lower)) {
+      if (!this.overlappingAt(lst, interval, lower, upper, action)) {
+        return false
+      }
+    }
+
+    /*
+     * Nodes are ordered by their lower bounds. If the current node's
+     * interval begins after the requested interval ends, then neither the
+     * current node's interval nor any interval in the right subtree can
+     * overlap.
+     */
+
+    if (IntervalBounds.greaterThan(current.interval.lower(), upper)) {
+      return true
+    }
+
+    if (interval.overlaps(current.interval)) {
+      if (!action(current.interval)) {
+        return false
+      }
+    }
+
+    val rst = current.right
+    if (rst != null && IntervalBounds.atLeast(rst.maximum, lower)) {
+      return this.overlappingAt(rst, interval, lower, upper, action)
+    }
+    return true
+  }
+
+  /*
+   * The queries are sorted by their lower bounds, and each group of
+   * consecutive queries descends the tree together: every node is visited
+   * once per group rather than once per query, and neighbouring queries
+   * share most of their paths. The queries that descend into the left
+   * subtree of a node are those whose lower bounds are at most the
+   * subtree's maximum, and so are always a prefix of the sorted group;
+   * the queries that descend into the right subtree are filtered into a
+   * scratch array per depth, which preserves their order.
+   */
+
+  override fun overlappingBatch(
+    queries : List<IntervalType<S>>,
+    pool : ForkJoinPool
+  ) : List<Collection<IntervalType<S>>> {
+    val inputs = ArrayList(queries)
+    val outputs = ArrayList<ArrayList<IntervalType<S>>>(inputs.size)
+    for (index in inputs.indices) {
+      outputs.add(ArrayList())
+    }
+
+    val current = this.root ?: return outputs
+    val order = Array(inputs.size) { index -> index }
+    order.sortWith { x, y ->
+      val qx = inputs[x]
+      val qy = inputs[y]
+      val cmp = qx.lower().compareTo(qy.lower())
+      if (cmp != 0) {
+        cmp
+      } else {
+        qx.upper().compareTo(qy.upper())
+      }
+    }
+
+    pool.invoke(IntervalTreeBatchTask(0, order.size) { lower, upper ->
+      val active = IntArray(upper - lower) { index -> order[lower + index] }
+      val scratch = arrayOfNulls<IntArray>(current.height)
+      this.overlappingBatchAt(
+        current,
+        0,
+        active,
+        active.size,
+        inputs,
+        outputs,
+        scratch
+      )
+    })
+    return outputs
+  }
+
+  private fun overlappingBatchAt(
+    current : Node<S>,
+    depth : Int,
+    active : IntArray,
+    count : Int,
+    inputs : List<IntervalType<S>>,
+    outputs : List<MutableList<IntervalType<S>>>,
+    scratch : Array<IntArray?>
+  ) {
+    val lst = current.left
+    if (lst != null) {
+      var prefix = 0
+      while (prefix < count) {
+        val query = inputs[active[prefix]]
+        if (!IntervalBounds.atLeast(lst.maximum, query.lower())) {
+          break
+        }
+        ++prefix
+      }
+      if (prefix > 0) {
+        this.overlappingBatchAt(
+          lst,
+          depth + 1,
+          active,
+          prefix,
+          inputs,
+          outputs,
+          scratch
+        )
+      }
+    }
+
+    val rst = current.right
+    val next =
+      scratch[depth] ?: IntArray(active.size).also { x -> scratch[depth] = x }
+    var remaining = 0
+    for (position in 0 until count) {
+      val index = active[position]
+      val query = inputs[index]
+      val lower = query.lower()
+      if (IntervalBounds.greaterThan(current.interval.lower(), query.upper())) {
+        continue
+      }
+      if (query.overlaps(current.interval)) {
+        outputs[index].add(current.interval)
+      }
+      if (rst != null && IntervalBounds.atLeast(rst.maximum, lower)) {
+        next[remaining] = index
+        ++remaining
+      }
+    }
+
+    if (rst != null && remaining > 0) {
+      this.overlappingBatchAt(
+        rst,
+        depth + 1,
+        next,
+        remaining,
+        inputs,
+        outputs,
+        scratch
+      )
+    }
+  }
+
+  override fun stabbing(point : S) : Collection<IntervalType<S>> {
+    val output = ArrayList<IntervalType<S>>()
+    val current = this.root
+    if (current != null) {
+      this.stabbingAt(current, point, output)
+    }
+    return output
+  }
+
+  private fun stabbingAt(
+    current : Node<S>,
+    point : S,
+    output : MutableList<IntervalType<S>>
+  ) {
+    val lst = current.left
+    if (lst != null && IntervalBounds.atLeast(lst.maximum, point)) {
+      this.stabbingAt(lst, point, output)
+    }
+
+    /*
+     * Nothing at or to the right of a node that begins after the point
+     * can contain the point.
+     */
+
+    if (IntervalBounds.greaterThan(current.interval.lower(), point)) {
+      return
+    }
+
+    if (IntervalBounds.atLeast(current.interval.upper(), point)) {
+      output.add(current.interval)
+    }
+
+    val rst = current.right
+    if (rst != null && IntervalBounds.atLeast(rst.maximum, point)) {
+      this.stabbingAt(rst, point, output)
+    }
+  }
+
+  override fun anyOverlapping(interval : IntervalType<S>) : Boolean {
+    return !this.forEachOverlappingWhile(interval) { false }
+  }
+
+  /*
+   * Intervals are ordered by their lower bounds, and each node holds the
+   * size of its subtree. An interval [l, u] overlaps [lower, upper] iff
+   * l <= upper and u >= lower. The overlapping intervals are therefore
+   * those that begin within [lower, upper] (counted by subtracting the
+   * ranks of the two bounds, without visiting them), plus those that begin
+   * before `lower` and end at or after it (counted by a walk that is pruned
+   * by the subtree maximums).
+   */
+
+  override fun countOverlapping(interval : IntervalType<S>) : Int {
+    val lower = interval.lower()
+    val upper = interval.upper()
+    return this.countLowerAtMost(upper) -
+      this.countLowerLessThan(lower) +
+      this.countStartingBefore(this.root, interval, lower)
+  }
+
+  private fun countLowerAtMost(bound : S) : Int {
+    var count = 0
+    var current = this.root
+    while (current != null) {
+      current = if (IntervalBounds.atMost(current.interval.lower(), bound)) {
+        count += (current.left?.size ?: 0) + 1
+        current.right
+      } else {
+        current.left
+      }
+    }
+    return count
+  }
+
+  private fun countLowerLessThan(bound : S) : Int {
+    var count = 0
+    var current = this.root
+    while (current != null) {
+      current = if (IntervalBounds.lessThan(current.interval.lower(), bound)) {
+        count += (current.left?.size ?: 0) + 1
+        current.right
+      } else {
+        current.left
+      }
+    }
+    return count
+  }
+
+  private fun countStartingBefore(
+    current : Node<S>?,
+    interval : IntervalType<S>,
+    lower : S
+  ) : Int {
+    if (current == null || IntervalBounds.lessThan(current.maximum, lower)) {
+      return 0
+    }
+
+    /*
+     * The overlap test is delegated to the interval so that the count
+     * agrees exactly with the intervals returned by overlapping().
+     */
+
+    var count = this.countStartingBefore(current.left, interval, lower)
+    if (IntervalBounds.lessThan(current.interval.lower(), lower)) {
+      if (interval.overlaps(current.interval)) {
+        ++count
+      }
+      count += this.countStartingBefore(current.right, interval, lower)
+    }
+    return count
+  }
 
   internal enum class BalanceFactor {
 
@@ -0,0 +1,223 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.core
+
+import java.util.concurrent.locks.ReentrantLock
+import java.util.function.Predicate
+import kotlin.concurrent.withLock
+
+/**
+ * A thread-safe interval tree in which readers never block. The current
+ * version of the tree is an immutable [IntervalTreePersistent] held in a
+ * volatile reference. Each query reads the reference once and runs
+ * entirely against that version, without synchronization, and so always
+ * observes a consistent state.
+ *
+ * Writers are serialized by a lock. A writer builds a new version of the
+ * tree off to the side by path copying, and then publishes it by
+ * replacing the reference. Many modifications can be published with a
+ * single replacement using [update]; the bulk operations of this tree
+ * ([addAll], [removeAll], [removeOverlapping], and so on) are all
+ * published with a single replacement.
+ *
+ * The change listener is called by the writing thread before the new
+ * version is published.
+ *
+ * @param <S> The type of scalar values
+ */
+
+class IntervalTreeAtomic<S : Comparable<S>> private constructor(
+  @Volatile
+  private var current : IntervalTreePersistent<S>
+) : IntervalTreeDebuggableType<S> {
+
+  private val writerLock = ReentrantLock()
+
+  @Volatile
+  private var listener : (IntervalTreeChangeType<S>) -> Unit = { }
+
+  @Volatile
+  private var validation : Boolean = false
+
+  companion object {
+
+    /**
+     * @return An empty tree
+     */
+
+    @JvmStatic
+    fun <S : Comparable<S>> empty() : IntervalTreeAtomic<S> {
+      return IntervalTreeAtomic(IntervalTreePersistent.empty())
+    }
+
+    /**
+     * Create a tree whose current version is `snapshot`.
+     *
+     * @param snapshot The initial version
+     *
+     * @return A tree
+     */
+
+    @JvmStatic
+    fun <S : Comparable<S>> fromSnapshot(
+      snapshot : IntervalTreePersistent<S>
+    ) : IntervalTreeAtomic<S> {
+      return IntervalTreeAtomic(snapshot)
+    }
+  }
+
+  /**
+   * Take a snapshot of the current version of the tree. This takes
+   * constant time and never blocks.
+   *
+   * @return The current version of the tree
+   */
+
+  fun snapshot() : IntervalTreePersistent<S> {
+    return this.current
+  }
+
+  /**
+   * Apply a batch of modifications to the tree. `action` is called exactly
+   * once, with exclusive access to a mutable working copy of the current
+   * version. When `action` returns, the resulting version is published
+   * with a single replacement, and so readers observe either none or all
+   * of the modifications. If `action` raises an exception, nothing is
+   * published (although the change listener will already have been
+   * called for any modifications made before the exception). The working
+   * copy must not be used after `action` returns.
+   *
+   * @param action The modifications
+   *
+   * @return The newly published version
+   */
+
+  fun update(
+    action : (IntervalTreeDebuggableType<S>) -> Unit
+  ) : IntervalTreePersistent<S> {
+    return this.writerLock.withLock {
+      val working = IntervalTreeVersioned.fromSnapshot(this.current)
+      working.setChangeListener(this.listener)
+      working.enableInternalValidation(this.validation)
+      action(working)
+
+      val next = working.snapshot()
+      this.current = next
+      next
+    }
+  }
+
+  private inline fun <T> updateWith(
+    crossinline action : (IntervalTreeDebuggableType<S>) -> T
+  ) : T {
+    var result : T? = null
+    this.update { tree -> result = action(tree) }
+    @Suppress("UNCHECKED_CAST")
+    return result as T
+  }
+
+  override fun setChangeListener(
+    listener : (IntervalTreeChangeType<S>) -> Unit
+  ) {
+    this.writerLock.withLock { this.listener = listener }
+  }
+
+  override fun enableInternalValidation(enabled : Boolean) {
+    this.writerLock.withLock { this.validation = enabled }
+  }
+
+  override fun insert(value : IntervalType<S>) : Boolean {
+    return this.updateWith { tree -> tree.insert(value) }
+  }
+
+  override fun addAll(value : Collection<IntervalType<S>>) : Boolean {
+    return this.updateWith { tree -> tree.addAll(value) }
+  }
+
+  override fun remove(value : IntervalType<S>) : Boolean {
+    return this.updateWith { tree -> tree.remove(value) }
+  }
+
+  override fun removeAll(c : Collection<IntervalType<S>>) : Boolean {
+    return this.updateWith { tree -> tree.removeAll(c) }
+  }
+
+  override fun removeOverlapping(interval : IntervalType<S>) : Int {
+    return this.updateWith { tree -> tree.removeOverlapping(interval) }
+  }
+
+  override fun removeContainedIn(interval : IntervalType<S>) : Int {
+    return this.updateWith { tree -> tree.removeContainedIn(interval) }
+  }
+
+  override fun removeIf(predicate : Predicate<in IntervalType<S>>) : Boolean {
+    return this.updateWith { tree -> tree.removeIf(predicate) }
+  }
+
+  override fun clear() {
+    this.update { tree -> tree.clear() }
+  }
+
+  override fun find(value : IntervalType<S>) : Boolean {
+    return this.current.find(value)
+  }
+
+  override fun minimum() : IntervalType<S>? {
+    return this.current.minimum()
+  }
+
+  override fun maximum() : IntervalType<S>? {
+    return this.current.maximum()
+  }
+
+  override fun overlapping(
+    interval : IntervalType<S>
+  ) : Collection<IntervalType<S>> {
+    return this.current.overlapping(interval)
+  }
+
+  override fun forEachOverlappingWhile(
+    interval : IntervalType<S>,
+    action : (IntervalType<S>) -> Boolean
+  ) : Boolean {
+    return this.current.forEachOverlappingWhile(interval, action)
+  }
+
+  override fun stabbing(point : S) : Collection<IntervalType<S>> {
+    return this.current.stabbing(point)
+  }
+
+  override fun anyOverlapping(interval : IntervalType<S>) : Boolean {
+    return this.current.anyOverlapping(interval)
+  }
+
+  override fun countOverlapping(interval : IntervalType<S>) : Int {
+    return this.current.countOverlapping(interval)
+  }
+
+  override val size : Int
+    get() = this.current.size
+
+  override fun isEmpty() : Boolean {
+    return this.current.isEmpty()
+  }
+
+  override fun iterator() : Iterator<IntervalType<S>> {
+    return this.current.iterator()
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.core
+
+import java.util.concurrent.RecursiveAction
+
+/**
+ * A fork/join task that divides a range of query positions `[lower, upper)`
+ * in half until each range holds at most [THRESHOLD] positions, and then
+ * passes each range to `leaf`. The ranges passed to `leaf` are disjoint.
+ *
+ * @param lower The lower position (inclusive)
+ * @param upper The upper position (exclusive)
+ * @param leaf  The function that evaluates a range of queries
+ */
+
+internal class IntervalTreeBatchTask(
+  private val lower : Int,
+  private val upper : Int,
+  private val leaf : (Int, Int) -> Unit
+) : RecursiveAction() {
+
+  companion object {
+
+    /*
+     * Below this many queries, the cost of forking a task outweighs the
+     * cost of simply evaluating the queries.
+     */
+
+    internal const val THRESHOLD = 256
+  }
+
+  override fun compute() {
+    if (this.upper - this.lower <= THRESHOLD) {
+      this.leaf(this.lower, this.upper)
+      return
+    }
+
+    val middle = (this.lower + this.upper) ushr 1
+    invokeAll(
+      IntervalTreeBatchTask(this.lower, middle, this.leaf),
+      IntervalTreeBatchTask(middle, this.upper, this.leaf)
+    )
+  }
+}
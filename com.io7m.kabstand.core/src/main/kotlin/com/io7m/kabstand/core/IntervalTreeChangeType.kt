@@ -73,6 +73,79 @@ sealed interface IntervalTreeChangeType<S : Comparable<S>> {
     }
   }
 
+  /**
+   * A batch of intervals was added to the tree. Individual [Created] and
+   * [Balanced] events are not published for the intervals in the batch.
+   *
+   * @param type      The type of batch operation
+   * @param intervals The intervals added, in order
+   * @param <S>       The type of scalar values
+   */
+
+  data class BatchInserted<S : Comparable<S>>(
+    val type : String,
+    val intervals : List<IntervalType<S>>
+  ) : IntervalTreeChangeType<S> {
+    override fun toString() : String {
+      return String.format("[BatchInserted %s %s]", type, intervals)
+    }
+  }
+
+  /**
+   * A batch of intervals was removed from the tree. Individual [Deleted]
+   * and [Balanced] events are not published for the intervals in the
+   * batch.
+   *
+   * @param type      The type of batch operation
+   * @param intervals The intervals removed, in order
+   * @param <S>       The type of scalar values
+   */
+
+  data class BatchDeleted<S : Comparable<S>>(
+    val type : String,
+    val intervals : List<IntervalType<S>>
+  ) : IntervalTreeChangeType<S> {
+    override fun toString() : String {
+      return String.format("[BatchDeleted %s %s]", type, intervals)
+    }
+  }
+
+  /**
+   * The tree was split into two trees at the given key.
+   *
+   * @param key       The key
+   * @param belowSize The number of intervals below the key
+   * @param aboveSize The number of intervals at or above the key
+   * @param <S>       The type of scalar values
+   */
+
+  data class Split<S : Comparable<S>>(
+    val key : S,
+    val belowSize : Int,
+    val aboveSize : Int
+  ) : IntervalTreeChangeType<S> {
+    override fun toString() : String {
+      return String.format("[Split %s %d %d]", key, belowSize, aboveSize)
+    }
+  }
+
+  /**
+   * Two trees were joined into a single tree.
+   *
+   * @param leftSize  The number of intervals in the left tree
+   * @param rightSize The number of intervals in the right tree
+   * @param <S>       The type of scalar values
+   */
+
+  data class Joined<S : Comparable<S>>(
+    val leftSize : Int,
+    val rightSize : Int
+  ) : IntervalTreeChangeType<S> {
+    override fun toString() : String {
+      return String.format("[Joined %d %d]", leftSize, rightSize)
+    }
+  }
+
   /**
    * All nodes were deleted from the tree.
    *
@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.core
+
+import java.util.concurrent.locks.StampedLock
+import java.util.function.Predicate
+
+/**
+ * A thread-safe interval tree that decorates an existing tree with a
+ * [StampedLock]. Modifications take the lock exclusively. Queries take
+ * the lock in shared mode, and so any number of queries may proceed in
+ * parallel. If the underlying tree is one of the trees in this package
+ * whose [size] and [isEmpty] read a single field ([IntervalTree],
+ * [IntervalTreeLong], [IntervalTreeInt], or [IntervalTreeDouble]), those
+ * queries first attempt an optimistic read, and only take the lock if a
+ * write intervened. For any other tree, they take the lock in shared mode.
+ *
+ * Every query observes a consistent state of the tree. Iterators traverse
+ * a copy of the tree taken when the iterator was created. The actions
+ * passed to [forEachOverlapping] and [forEachOverlappingWhile] are called
+ * with the lock held, and must not modify the tree; the lock is not
+ * reentrant, and so attempting to do so will deadlock. The change listener
+ * is likewise called with the lock held exclusively.
+ *
+ * The underlying tree must not be accessed directly once it has been
+ * wrapped.
+ *
+ * @param <S> The type of scalar values
+ */
+
+class IntervalTreeConcurrent<S : Comparable<S>> private constructor(
+  private val delegate : IntervalTreeType<S>
+) : IntervalTreeDebuggableType<S> {
+
+  private val lock = StampedLock()
+
+  /*
+   * Set if [size] and [isEmpty] on the underlying tree are known to read a
+   * single field. Other implementations may compute their sizes by
+   * traversing the tree, which is not safe to do concurrently with
+   * writers.
+   */
+
+  private val fieldReads : Boolean =
+    this.delegate is IntervalTree<S> ||
+      this.delegate is IntervalTreeLong ||
+      this.delegate is IntervalTreeInt ||
+      this.delegate is IntervalTreeDouble
+
+  companion object {
+
+    /**
+     * Wrap an existing tree.
+     *
+     * @param tree The tree
+     *
+     * @return A thread-safe tree
+     */
+
+    @JvmStatic
+    fun <S : Comparable<S>> wrap(
+      tree : IntervalTreeType<S>
+    ) : IntervalTreeConcurrent<S> {
+      return IntervalTreeConcurrent(tree)
+    }
+  }
+
+  private inline fun <T> reading(f : () -> T) : T {
+    val stamp = this.lock.readLock()
+    try {
+      return f()
+    } finally {
+      this.lock.unlockRead(stamp)
+    }
+  }
+
+  private inline fun <T> writing(f : () -> T) : T {
+    val stamp = this.lock.writeLock()
+    try {
+      return f()
+    } finally {
+      this.lock.unlockWrite(stamp)
+    }
+  }
+
+  /*
+   * An optimistic read runs concurrently with writers, and so may observe
+   * the underlying tree in an intermediate state. This is only safe for
+   * reads that cannot fail or fail to terminate when given an inconsistent
+   * view, and so is limited to reads of a single field. Trees that are not
+   * known to implement a query as a field read are read with the lock held.
+   */
+
+  private inline fun <T> readingOptimistically(f : () -> T) : T {
+    if (!this.fieldReads) {
+      return this.reading(f)
+    }
+
+    val stamp = this.lock.tryOptimisticRead()
+    if (stamp != 0L) {
+      val result = f()
+      if (this.lock.validate(stamp)) {
+        return result
+      }
+    }
+    return this.reading(f)
+  }
+
+  override fun setChangeListener(
+    listener : (IntervalTreeChangeType<S>) -> Unit
+  ) {
+    this.writing { this.delegate.setChangeListener(listener) }
+  }
+
+  override fun enableInternalValidation(enabled : Boolean) {
+    this.writing {
+      if (this.delegate is IntervalTreeDebuggableType<S>) {
+        this.delegate.enableInternalValidation(enabled)
+      }
+    }
+  }
+
+  override fun insert(value : IntervalType<S>) : Boolean {
+    return this.writing { this.delegate.insert(value) }
+  }
+
+  override fun add(value : IntervalType<S>) : Boolean {
+    return this.writing { this.delegate.add(value) }
+  }
+
+  override fun addAll(value : Collection<IntervalType<S>>) : Boolean {
+    return this.writing { this.delegate.addAll(value) }
+  }
+
+  override fun remove(value : IntervalType<S>) : Boolean {
+    return this.writing { this.delegate.remove(value) }
+  }
+
+  override fun removeAll(c : Collection<IntervalType<S>>) : Boolean {
+    return this.writing { this.delegate.removeAll(c) }
+  }
+
+  override fun removeOverlapping(interval : IntervalType<S>) : Int {
+    return this.writing { this.delegate.removeOverlapping(interval) }
+  }
+
+  override fun removeContainedIn(interval : IntervalType<S>) : Int {
+    return this.writing { this.delegate.removeContainedIn(interval) }
+  }
+
+  override fun removeIf(predicate : Predicate<in IntervalType<S>>) : Boolean {
+    return this.writing { this.delegate.removeIf(predicate) }
+  }
+
+  override fun clear() {
+    this.writing { this.delegate.clear() }
+  }
+
+  override fun find(value : IntervalType<S>) : Boolean {
+    return this.reading { this.delegate.find(value) }
+  }
+
+  override fun contains(element : IntervalType<S>) : Boolean {
+    return this.reading { this.delegate.contains(element) }
+  }
+
+  override fun containsAll(elements : Collection<IntervalType<S>>) : Boolean {
+    return this.reading { this.delegate.containsAll(elements) }
+  }
+
+  override fun minimum() : IntervalType<S>? {
+    return this.reading { this.delegate.minimum() }
+  }
+
+  override fun maximum() : IntervalType<S>? {
+    return this.reading { this.delegate.maximum() }
+  }
+
+  override fun overlapping(
+    interval : IntervalType<S>
+  ) : Collection<IntervalType<S>> {
+    return this.reading { ArrayList(this.delegate.overlapping(interval)) }
+  }
+
+  override fun stabbing(point : S) : Collection<IntervalType<S>> {
+    return this.reading { ArrayList(this.delegate.stabbing(point)) }
+  }
+
+  override fun forEachOverlappingWhile(
+    interval : IntervalType<S>,
+    action : (IntervalType<S>) -> Boolean
+  ) : Boolean {
+    return this.reading {
+      this.delegate.forEachOverlappingWhile(interval, action)
+    }
+  }
+
+  override fun anyOverlapping(interval : IntervalType<S>) : Boolean {
+    return this.reading { this.delegate.anyOverlapping(interval) }
+  }
+
+  override fun countOverlapping(interval : IntervalType<S>) : Int {
+    return this.reading { this.delegate.countOverlapping(interval) }
+  }
+
+  override val size : Int
+    get() = this.readingOptimistically { this.delegate.size }
+
+  override fun isEmpty() : Boolean {
+    return this.readingOptimistically { this.delegate.isEmpty() }
+  }
+
+  override fun iterator() : Iterator<IntervalType<S>> {
+    return this.reading { ArrayList(this.delegate) }.iterator()
+  }
+}
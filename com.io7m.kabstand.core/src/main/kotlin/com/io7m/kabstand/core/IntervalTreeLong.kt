@@ -0,0 +1,488 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.core
+
+import kotlin.math.max
+
+/**
+ * An interval tree specialized to `long` bounds. The tree is an AVL tree
+ * storing intervals and the maximum upper bounds that contain their
+ * subtrees. Unlike an [IntervalTree] of [IntervalL] values, the bounds
+ * and maximums are held in the nodes as primitive values, and are
+ * compared without boxing. Intervals are only allocated when they are
+ * returned to the caller.
+ */
+
+class IntervalTreeLong private constructor() : IntervalTreeDebuggableType<Long> {
+
+  private val tree = IntervalNodeStructure<Long, Node>()
+
+  private class Node(
+    var lower : Long,
+    var upper : Long
+  ) : IntervalNode<Long, Node>() {
+
+    var maximum : Long = upper
+
+    override fun updateMaximum() {
+      var newMaximum = this.upper
+      val leftST = this.left
+      if (leftST != null && leftST.maximum > newMaximum) {
+        newMaximum = leftST.maximum
+      }
+      val rightST = this.right
+      if (rightST != null && rightST.maximum > newMaximum) {
+        newMaximum = rightST.maximum
+      }
+      this.maximum = newMaximum
+    }
+
+    override fun interval() : IntervalL {
+      return IntervalL(this.lower, this.upper)
+    }
+
+    override fun compareNode(other : Node) : IntervalComparison {
+      return compare(this.lower, this.upper, other)
+    }
+
+    override fun copyInterval(other : Node) {
+      this.lower = other.lower
+      this.upper = other.upper
+    }
+
+    override fun checkBounds() {
+      check(this.upper >= this.lower) {
+        "Upper ${this.upper} must be >= lower ${this.lower}"
+      }
+
+      var expectedMaximum = this.upper
+      val leftST = this.left
+      if (leftST != null) {
+        expectedMaximum = max(expectedMaximum, leftST.maximum)
+      }
+      val rightST = this.right
+      if (rightST != null) {
+        expectedMaximum = max(expectedMaximum, rightST.maximum)
+      }
+      check(this.maximum == expectedMaximum) {
+        "Maximum of node ${this.interval()} is ${this.maximum} but should be $expectedMaximum"
+      }
+    }
+  }
+
+  companion object {
+
+    /**
+     * @return An empty tree
+     */
+
+    @JvmStatic
+    fun empty() : IntervalTreeLong {
+      return IntervalTreeLong()
+    }
+
+    /**
+     * Compare the interval `[lower, upper]` against the interval held in
+     * `node`. The ordering is the same as that of [IntervalType.compare].
+     */
+
+    private fun compare(
+      lower : Long,
+      upper : Long,
+      node : Node
+    ) : IntervalComparison {
+      if (lower < node.lower) {
+        return IntervalComparison.LESS_THAN
+      }
+      if (lower == node.lower) {
+        if (upper < node.upper) {
+          return IntervalComparison.LESS_THAN
+        }
+        return if (upper == node.upper) {
+          IntervalComparison.EQUAL
+        } else IntervalComparison.MORE_THAN
+      }
+      return IntervalComparison.MORE_THAN
+    }
+  }
+
+  override fun setChangeListener(
+    listener : (IntervalTreeChangeType<Long>) -> Unit
+  ) {
+    this.tree.setChangeListener(listener)
+  }
+
+  override fun insert(value : IntervalType<Long>) : Boolean {
+    return this.insert(value.lower(), value.upper())
+  }
+
+  /**
+   * Insert an interval into the tree.
+   *
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return `true` if the interval was not already present in the tree
+   */
+
+  fun insert(
+    lower : Long,
+    upper : Long
+  ) : Boolean {
+    check(upper >= lower) { "Upper $upper must be >= lower $lower " }
+
+    /*
+     * Descend to the position at which the new leaf belongs, recording
+     * the path taken.
+     */
+
+    val t = this.tree
+    var depth = 0
+    var current = t.root
+    while (current != null) {
+      current = when (compare(lower, upper, current)) {
+        IntervalComparison.EQUAL     -> {
+          t.pathClear(depth)
+          return false
+        }
+
+        IntervalComparison.LESS_THAN -> {
+          t.pathPush(depth, current, true)
+          current.left
+        }
+
+        IntervalComparison.MORE_THAN -> {
+          t.pathPush(depth, current, false)
+          current.right
+        }
+      }
+      ++depth
+    }
+
+    t.insertAt(depth, Node(lower, upper))
+    return true
+  }
+
+  override fun remove(value : IntervalType<Long>) : Boolean {
+    return this.remove(value.lower(), value.upper())
+  }
+
+  /**
+   * Remove an interval from the tree.
+   *
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return `true` if the interval was present in the tree
+   */
+
+  fun remove(
+    lower : Long,
+    upper : Long
+  ) : Boolean {
+
+    /*
+     * Descend to the node holding the interval, recording the path taken.
+     */
+
+    val t = this.tree
+    var depth = 0
+    var current = t.root
+    while (current != null) {
+      current = when (compare(lower, upper, current)) {
+        IntervalComparison.EQUAL     -> {
+          t.removeAt(depth, current)
+          return true
+        }
+
+        IntervalComparison.LESS_THAN -> {
+          t.pathPush(depth, current, true)
+          current.left
+        }
+
+        IntervalComparison.MORE_THAN -> {
+          t.pathPush(depth, current, false)
+          current.right
+        }
+      }
+      ++depth
+    }
+
+    t.pathClear(depth)
+    return false
+  }
+
+  override fun find(value : IntervalType<Long>) : Boolean {
+    return this.find(value.lower(), value.upper())
+  }
+
+  /**
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return `true` if the exact interval is present in the tree
+   */
+
+  fun find(
+    lower : Long,
+    upper : Long
+  ) : Boolean {
+    var current = this.tree.root
+    while (current != null) {
+      current = when (compare(lower, upper, current)) {
+        IntervalComparison.EQUAL     -> return true
+        IntervalComparison.LESS_THAN -> current.left
+        IntervalComparison.MORE_THAN -> current.right
+      }
+    }
+    return false
+  }
+
+  override fun enableInternalValidation(enabled : Boolean) {
+    this.tree.validation = enabled
+  }
+
+  override fun clear() {
+    this.tree.clear()
+  }
+
+  override fun minimum() : IntervalType<Long>? {
+    return this.tree.minimum()?.interval()
+  }
+
+  override fun maximum() : IntervalType<Long>? {
+    return this.tree.maximum()?.interval()
+  }
+
+  override val size : Int
+    get() = this.tree.count
+
+  override fun isEmpty() : Boolean {
+    return this.tree.root == null
+  }
+
+  override fun iterator() : Iterator<IntervalType<Long>> {
+    return this.tree.iterator()
+  }
+
+  override fun overlapping(
+    interval : IntervalType<Long>
+  ) : Collection<IntervalType<Long>> {
+    return this.overlapping(interval.lower(), interval.upper())
+  }
+
+  /**
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return The set of intervals that overlap `[lower, upper]`, if any
+   */
+
+  fun overlapping(
+    lower : Long,
+    upper : Long
+  ) : Collection<IntervalType<Long>> {
+    val output = ArrayList<IntervalType<Long>>()
+    this.forEachOverlappingWhile(lower, upper) { l, u ->
+      output.add(IntervalL(l, u))
+    }
+    return output
+  }
+
+  override fun forEachOverlappingWhile(
+    interval : IntervalType<Long>,
+    action : (IntervalType<Long>) -> Boolean
+  ) : Boolean {
+    return this.forEachOverlappingWhile(
+      interval.lower(),
+      interval.upper()
+    ) { l, u -> action(IntervalL(l, u)) }
+  }
+
+  /**
+   * Call `visitor` for each interval that overlaps `[lower, upper]`, in
+   * order, until the visitor returns `false`. The bounds of each interval
+   * are passed to the visitor directly, and the walk itself allocates
+   * nothing. The visitor must not modify the tree.
+   *
+   * @param lower   The inclusive lower bound
+   * @param upper   The inclusive upper bound
+   * @param visitor The visitor
+   *
+   * @return `false` if the visitor stopped the walk early
+   */
+
+  fun forEachOverlappingWhile(
+    lower : Long,
+    upper : Long,
+    visitor : IntervalLongVisitorType
+  ) : Boolean {
+    check(upper >= lower) { "Upper $upper must be >= lower $lower " }
+
+    val current = this.tree.root ?: return true
+    return this.overlappingAt(current, lower, upper, visitor)
+  }
+
+  private fun overlappingAt(
+    current : Node,
+    lower : Long,
+    upper : Long,
+    visitor : IntervalLongVisitorType
+  ) : Boolean {
+    val lst = current.left
+    if (lst != null && lst.maximum >= lower) {
+      if (!this.overlappingAt(lst, lower, upper, visitor)) {
+        return false
+      }
+    }
+
+    /*
+     * Nodes are ordered by their lower bounds, so if the current node's
+     * interval begins after the requested interval ends, then nothing in
+     * the right subtree can overlap either.
+     */
+
+    if (current.lower > upper) {
+      return true
+    }
+
+    if (lower <= current.upper) {
+      if (!visitor.visit(current.lower, current.upper)) {
+        return false
+      }
+    }
+
+    val rst = current.right
+    if (rst != null && rst.maximum >= lower) {
+      return this.overlappingAt(rst, lower, upper, visitor)
+    }
+    return true
+  }
+
+  /**
+   * @param point The point
+   *
+   * @return The set of intervals that contain `point`, if any
+   */
+
+  override fun stabbing(point : Long) : Collection<IntervalType<Long>> {
+    val output = ArrayList<IntervalType<Long>>()
+    this.forEachOverlappingWhile(point, point) { l, u ->
+      output.add(IntervalL(l, u))
+    }
+    return output
+  }
+
+  override fun anyOverlapping(interval : IntervalType<Long>) : Boolean {
+    return this.anyOverlapping(interval.lower(), interval.upper())
+  }
+
+  /**
+   * Determine if any interval overlaps `[lower, upper]`. The search stops
+   * at the first overlapping interval.
+   *
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return `true` if any interval in the tree overlaps `[lower, upper]`
+   */
+
+  fun anyOverlapping(
+    lower : Long,
+    upper : Long
+  ) : Boolean {
+    return !this.forEachOverlappingWhile(lower, upper) { _, _ -> false }
+  }
+
+  override fun countOverlapping(interval : IntervalType<Long>) : Int {
+    return this.countOverlapping(interval.lower(), interval.upper())
+  }
+
+  /*
+   * Intervals are ordered by their lower bounds, and each node holds the
+   * size of its subtree. An interval [l, u] overlaps [lower, upper] iff
+   * l <= upper and u >= lower. The overlapping intervals are therefore
+   * those that begin within [lower, upper] (counted by subtracting the
+   * ranks of the two bounds, without visiting them), plus those that begin
+   * before `lower` and end at or after it (counted by a walk that is pruned
+   * by the subtree maximums).
+   */
+
+  /**
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return The number of intervals that overlap `[lower, upper]`
+   */
+
+  fun countOverlapping(
+    lower : Long,
+    upper : Long
+  ) : Int {
+    check(upper >= lower) { "Upper $upper must be >= lower $lower " }
+
+    return this.countLowerAtMost(upper) -
+      this.countLowerLessThan(lower) +
+      this.countStartingBefore(this.tree.root, lower)
+  }
+
+  private fun countLowerAtMost(bound : Long) : Int {
+    var count = 0
+    var current = this.tree.root
+    while (current != null) {
+      current = if (current.lower <= bound) {
+        count += (current.left?.size ?: 0) + 1
+        current.right
+      } else {
+        current.left
+      }
+    }
+    return count
+  }
+
+  private fun countLowerLessThan(bound : Long) : Int {
+    var count = 0
+    var current = this.tree.root
+    while (current != null) {
+      current = if (current.lower < bound) {
+        count += (current.left?.size ?: 0) + 1
+        current.right
+      } else {
+        current.left
+      }
+    }
+    return count
+  }
+
+  private fun countStartingBefore(
+    current : Node?,
+    lower : Long
+  ) : Int {
+    if (current == null || current.maximum < lower) {
+      return 0
+    }
+
+    var count = this.countStartingBefore(current.left, lower)
+    if (current.lower < lower) {
+      if (current.upper >= lower) {
+        ++count
+      }
+      count += this.countStartingBefore(current.right, lower)
+    }
+    return count
+  }
+}
@@ -0,0 +1,1071 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.core
+
+import com.io7m.kabstand.core.IntervalLongNodeStoreType.Companion.NIL
+import com.io7m.kabstand.core.IntervalTree.BalanceFactor.*
+import com.io7m.kabstand.core.IntervalTreeChangeType.Deleted
+import kotlin.math.max
+
+/**
+ * An interval tree specialized to `long` bounds that does not allocate an
+ * object per node. The tree is an AVL tree storing intervals and the
+ * maximum upper bounds that contain their subtrees, in the same manner as
+ * [IntervalTreeLong], but nodes are records in a node store addressed by
+ * `int` indices. Two stores are available:
+ *
+ * - [onHeap] keeps each node field in a large primitive array, so the
+ *   garbage collector has a handful of arrays to trace regardless of the
+ *   number of intervals held.
+ * - [offHeap] keeps nodes as records in chunks of direct memory, so the
+ *   intervals are not held on the heap at all.
+ *
+ * Closing a tree discards its references to its storage, so that the
+ * storage can be collected even if the tree object itself remains
+ * reachable. Closing does not free the storage immediately: the Java 11
+ * platform provides no means to explicitly release direct memory, and so
+ * the memory of an off-heap tree is released only when the garbage
+ * collector collects the (small number of) buffer objects that own it.
+ */
+
+class IntervalTreeLongPacked private constructor(
+  private val store : IntervalLongNodeStoreType,
+  private var root : Int,
+  private var listener : (IntervalTreeChangeType<Long>) -> Unit,
+  private var listening : Boolean,
+  private var validation : Boolean
+) : IntervalTreeDebuggableType<Long>, AutoCloseable {
+
+  private var closed : Boolean = false
+
+  /*
+   * The path from the root taken by the current insertion or removal, and
+   * the direction taken at each node on the path (`true` for left).
+   */
+
+  private var path : IntArray = IntArray(PATH_INITIAL_SIZE)
+  private var pathLeft : BooleanArray = BooleanArray(PATH_INITIAL_SIZE)
+
+  /*
+   * The number of structural modifications made to the tree. Used by
+   * iterators to detect concurrent modification.
+   */
+
+  private var modCount : Int = 0
+
+  /*
+   * The number of intervals in the tree.
+   */
+
+  private var count : Int = 0
+
+  private fun checkNotClosed() {
+    check(!this.closed) { "Tree has been closed." }
+  }
+
+  private fun leftHeight(node : Int) : Int {
+    val leftST = this.store.left(node)
+    return if (leftST == NIL) 0 else this.store.height(leftST)
+  }
+
+  private fun rightHeight(node : Int) : Int {
+    val rightST = this.store.right(node)
+    return if (rightST == NIL) 0 else this.store.height(rightST)
+  }
+
+  private fun balanceFactor(node : Int) : IntervalTree.BalanceFactor {
+    val delta : Int = this.leftHeight(node) - this.rightHeight(node)
+    if (delta > 1) {
+      return LEFT_HEAVY
+    }
+    if (delta > 0) {
+      return BALANCED_LEANING_LEFT
+    }
+    if (delta < -1) {
+      return RIGHT_HEAVY
+    }
+    return if (delta < 0) {
+      BALANCED_LEANING_RIGHT
+    } else BALANCED
+  }
+
+  private fun updateHeight(node : Int) {
+    this.store.setHeight(
+      node,
+      max(this.leftHeight(node), this.rightHeight(node)) + 1
+    )
+  }
+
+  private fun sizeOf(node : Int) : Int {
+    return if (node == NIL) 0 else this.store.size(node)
+  }
+
+  /**
+   * Recalculate the number of intervals in the node's subtree from the
+   * cached sizes of the immediate children.
+   */
+
+  private fun updateSize(node : Int) {
+    val s = this.store
+    s.setSize(
+      node,
+      this.sizeOf(s.left(node)) + this.sizeOf(s.right(node)) + 1
+    )
+  }
+
+  /**
+   * Recalculate the maximum upper bound of the node's subtree from the
+   * node's own interval and the cached maximums of the immediate children.
+   */
+
+  private fun updateMaximum(node : Int) {
+    val s = this.store
+    var newMaximum = s.upper(node)
+    val leftST = s.left(node)
+    if (leftST != NIL) {
+      newMaximum = max(newMaximum, s.maximum(leftST))
+    }
+    val rightST = s.right(node)
+    if (rightST != NIL) {
+      newMaximum = max(newMaximum, s.maximum(rightST))
+    }
+    s.setMaximum(node, newMaximum)
+  }
+
+  private fun interval(node : Int) : IntervalL {
+    return IntervalL(this.store.lower(node), this.store.upper(node))
+  }
+
+  /**
+   * Compare the interval `[lower, upper]` against the interval held in
+   * `node`. The ordering is the same as that of [IntervalType.compare].
+   */
+
+  private fun compare(
+    lower : Long,
+    upper : Long,
+    node : Int
+  ) : IntervalComparison {
+    val nodeLower = this.store.lower(node)
+    if (lower < nodeLower) {
+      return IntervalComparison.LESS_THAN
+    }
+    if (lower == nodeLower) {
+      val nodeUpper = this.store.upper(node)
+      if (upper < nodeUpper) {
+        return IntervalComparison.LESS_THAN
+      }
+      return if (upper == nodeUpper) {
+        IntervalComparison.EQUAL
+      } else IntervalComparison.MORE_THAN
+    }
+    return IntervalComparison.MORE_THAN
+  }
+
+  private fun publish(change : IntervalTreeChangeType<Long>) {
+    try {
+      this.listener(change)
+    } catch (e : Throwable) {
+      // Nothing we can do about it.
+    }
+  }
+
+  private fun sizeTraverse(node : Int) : Int {
+    if (node == NIL) {
+      return 0
+    }
+    return 1 +
+      this.sizeTraverse(this.store.left(node)) +
+      this.sizeTraverse(this.store.right(node))
+  }
+
+  private fun publishBalanced(
+    type : String,
+    node : Int
+  ) {
+    if (this.listening) {
+      this.publish(IntervalTreeChangeType.Balanced(type, this.interval(node)))
+    }
+  }
+
+  private fun balance(current : Int) : Int {
+    return when (this.balanceFactor(current)) {
+      BALANCED,
+      BALANCED_LEANING_LEFT,
+      BALANCED_LEANING_RIGHT -> {
+        current
+      }
+
+      LEFT_HEAVY             -> {
+        when (this.balanceFactor(this.store.left(current))) {
+          RIGHT_HEAVY,
+          BALANCED_LEANING_RIGHT -> {
+            this.publishBalanced("RL", current)
+            this.rotateRL(current)
+          }
+
+          LEFT_HEAVY,
+          BALANCED,
+          BALANCED_LEANING_LEFT  -> {
+            this.publishBalanced("RR", current)
+            this.rotateRR(current)
+          }
+        }
+      }
+
+      RIGHT_HEAVY            -> {
+        when (this.balanceFactor(this.store.right(current))) {
+          LEFT_HEAVY,
+          BALANCED_LEANING_LEFT  -> {
+            this.publishBalanced("LR", current)
+            this.rotateLR(current)
+          }
+
+          RIGHT_HEAVY,
+          BALANCED,
+          BALANCED_LEANING_RIGHT -> {
+            this.publishBalanced("LL", current)
+            this.rotateLL(current)
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Perform an RR ("Single Right") rotation.
+   *
+   * @param c The current node
+   *
+   * @return The new root node of the subtree
+   */
+
+  private fun rotateRR(c : Int) : Int {
+    val s = this.store
+    val b = s.left(c)
+    s.setLeft(c, s.right(b))
+    s.setRight(b, c)
+    this.updateHeight(c)
+    this.updateSize(c)
+    this.updateMaximum(c)
+    this.updateHeight(b)
+    this.updateSize(b)
+    this.updateMaximum(b)
+    return b
+  }
+
+  /**
+   * Perform an LL ("Single Left") rotation.
+   *
+   * @param a The current node
+   *
+   * @return The new root node of the subtree
+   */
+
+  private fun rotateLL(a : Int) : Int {
+    val s = this.store
+    val b = s.right(a)
+    s.setRight(a, s.left(b))
+    s.setLeft(b, a)
+    this.updateHeight(a)
+    this.updateSize(a)
+    this.updateMaximum(a)
+    this.updateHeight(b)
+    this.updateSize(b)
+    this.updateMaximum(b)
+    return b
+  }
+
+  /**
+   * Perform an RL ("Double Right") rotation.
+   *
+   * @param current The current node
+   *
+   * @return The new root node of the subtree
+   */
+
+  private fun rotateRL(current : Int) : Int {
+    this.store.setLeft(current, this.rotateLL(this.store.left(current)))
+    return this.rotateRR(current)
+  }
+
+  /**
+   * Perform an LR ("Double Left") rotation.
+   *
+   * @param current The current node
+   *
+   * @return The new root node of the subtree
+   */
+
+  private fun rotateLR(current : Int) : Int {
+    this.store.setRight(current, this.rotateRR(this.store.right(current)))
+    return this.rotateLL(current)
+  }
+
+  private fun validateAt(current : Int) {
+    if (current == NIL) {
+      return
+    }
+
+    val s = this.store
+    val leftST = s.left(current)
+    val rightST = s.right(current)
+    var expectedMaximum = s.upper(current)
+
+    check(s.upper(current) >= s.lower(current)) {
+      "Upper ${s.upper(current)} must be >= lower ${s.lower(current)}"
+    }
+
+    if (leftST != NIL) {
+      val cmp = this.compare(s.lower(leftST), s.upper(leftST), current)
+      check(cmp == IntervalComparison.LESS_THAN) {
+        "Left value node ${this.interval(leftST)} must be < current node value ${this.interval(current)} but is $cmp"
+      }
+      expectedMaximum = max(expectedMaximum, s.maximum(leftST))
+    }
+    if (rightST != NIL) {
+      val cmp = this.compare(s.lower(rightST), s.upper(rightST), current)
+      check(cmp == IntervalComparison.MORE_THAN) {
+        "Right value node ${this.interval(rightST)} must be > current node value ${this.interval(current)} but is $cmp"
+      }
+      expectedMaximum = max(expectedMaximum, s.maximum(rightST))
+    }
+
+    check(s.maximum(current) == expectedMaximum) {
+      "Maximum of node ${this.interval(current)} is ${s.maximum(current)} but should be $expectedMaximum"
+    }
+    check(s.height(current) == max(this.leftHeight(current), this.rightHeight(current)) + 1) {
+      "Height of node ${this.interval(current)} is incorrect"
+    }
+    check(s.size(current) == this.sizeOf(leftST) + this.sizeOf(rightST) + 1) {
+      "Size of node ${this.interval(current)} is incorrect"
+    }
+    check(this.balanceFactor(current).isBalanced) {
+      "Balance factor of node ${this.interval(current)} is ${this.balanceFactor(current)}"
+    }
+
+    this.validateAt(leftST)
+    this.validateAt(rightST)
+  }
+
+  private fun validate() {
+    if (this.validation) {
+      this.validateAt(this.root)
+
+      val traversed = this.sizeTraverse(this.root)
+      check(traversed == this.count) {
+        "Tree size $traversed does not match the count ${this.count}"
+      }
+    }
+  }
+
+  private fun pathPush(
+    depth : Int,
+    node : Int,
+    wentLeft : Boolean
+  ) {
+    if (depth == this.path.size) {
+      this.path = this.path.copyOf(this.path.size * 2)
+      this.pathLeft = this.pathLeft.copyOf(this.pathLeft.size * 2)
+    }
+    this.path[depth] = node
+    this.pathLeft[depth] = wentLeft
+  }
+
+  /**
+   * Walk back up the current path from `depth - 1` to the root. At each
+   * node, the subtree that the path descended into is replaced with
+   * `replacement`, the node's height, size, and maximum are recalculated,
+   * and the node is rebalanced. The (possibly new) root of each rebalanced
+   * subtree becomes the replacement for the level above.
+   */
+
+  private fun rebalancePath(
+    depth : Int,
+    replacement : Int
+  ) {
+    val s = this.store
+    var newSubtree = replacement
+    for (index in depth - 1 downTo 0) {
+      val current = this.path[index]
+      if (this.pathLeft[index]) {
+        s.setLeft(current, newSubtree)
+      } else {
+        s.setRight(current, newSubtree)
+      }
+      this.updateMaximum(current)
+      this.updateHeight(current)
+      this.updateSize(current)
+      newSubtree = this.balance(current)
+    }
+    this.root = newSubtree
+  }
+
+  companion object {
+
+    private const val DEFAULT_CAPACITY = 64
+    private const val PATH_INITIAL_SIZE = 48
+    private const val DEFAULT_CHUNK_RECORDS = 65536
+
+    /**
+     * Create an empty tree that keeps its nodes in parallel primitive
+     * arrays on the heap.
+     *
+     * @param initialCapacity The number of nodes for which storage is
+     * initially allocated
+     *
+     * @return An empty tree
+     */
+
+    @JvmStatic
+    fun onHeap(initialCapacity : Int) : IntervalTreeLongPacked {
+      return IntervalTreeLongPacked(
+        store = IntervalLongNodeStoreArrays(initialCapacity),
+        root = NIL,
+        listener = { },
+        listening = false,
+        validation = false
+      )
+    }
+
+    /**
+     * Create an empty tree that keeps its nodes in parallel primitive
+     * arrays on the heap.
+     *
+     * @return An empty tree
+     */
+
+    @JvmStatic
+    fun onHeap() : IntervalTreeLongPacked {
+      return this.onHeap(DEFAULT_CAPACITY)
+    }
+
+    /**
+     * Create an empty tree that keeps its nodes in direct memory outside
+     * of the heap. Memory is allocated in chunks of `chunkRecords` nodes
+     * as the tree grows.
+     *
+     * @param chunkRecords The number of nodes held in each chunk of
+     * memory; rounded up to the next power of two
+     *
+     * @return An empty tree
+     */
+
+    @JvmStatic
+    fun offHeap(chunkRecords : Int) : IntervalTreeLongPacked {
+      return IntervalTreeLongPacked(
+        store = IntervalLongNodeStoreDirect(chunkRecords),
+        root = NIL,
+        listener = { },
+        listening = false,
+        validation = false
+      )
+    }
+
+    /**
+     * Create an empty tree that keeps its nodes in direct memory outside
+     * of the heap.
+     *
+     * @return An empty tree
+     */
+
+    @JvmStatic
+    fun offHeap() : IntervalTreeLongPacked {
+      return this.offHeap(DEFAULT_CHUNK_RECORDS)
+    }
+  }
+
+  override fun setChangeListener(
+    listener : (IntervalTreeChangeType<Long>) -> Unit
+  ) {
+    this.listener = listener
+    this.listening = true
+  }
+
+  override fun insert(value : IntervalType<Long>) : Boolean {
+    return this.insert(value.lower(), value.upper())
+  }
+
+  /**
+   * Insert an interval into the tree.
+   *
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return `true` if the interval was not already present in the tree
+   */
+
+  fun insert(
+    lower : Long,
+    upper : Long
+  ) : Boolean {
+    this.checkNotClosed()
+    check(upper >= lower) { "Upper $upper must be >= lower $lower " }
+
+    /*
+     * Descend to the position at which the new leaf belongs, recording
+     * the path taken.
+     */
+
+    val s = this.store
+    var depth = 0
+    var current = this.root
+    while (current != NIL) {
+      current = when (this.compare(lower, upper, current)) {
+        IntervalComparison.EQUAL     -> return false
+
+        IntervalComparison.LESS_THAN -> {
+          this.pathPush(depth, current, true)
+          s.left(current)
+        }
+
+        IntervalComparison.MORE_THAN -> {
+          this.pathPush(depth, current, false)
+          s.right(current)
+        }
+      }
+      ++depth
+    }
+
+    if (this.listening) {
+      this.publish(IntervalTreeChangeType.Created(IntervalL(lower, upper)))
+    }
+    this.rebalancePath(depth, s.allocate(lower, upper))
+    ++this.count
+    ++this.modCount
+
+    this.validate()
+    return true
+  }
+
+  override fun remove(value : IntervalType<Long>) : Boolean {
+    return this.remove(value.lower(), value.upper())
+  }
+
+  /**
+   * Remove an interval from the tree.
+   *
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return `true` if the interval was present in the tree
+   */
+
+  fun remove(
+    lower : Long,
+    upper : Long
+  ) : Boolean {
+    this.checkNotClosed()
+
+    /*
+     * Descend to the node holding the interval, recording the path taken.
+     */
+
+    val s = this.store
+    var depth = 0
+    var current = this.root
+    while (current != NIL) {
+      current = when (this.compare(lower, upper, current)) {
+        IntervalComparison.EQUAL     -> {
+          this.removeAt(depth, current)
+          return true
+        }
+
+        IntervalComparison.LESS_THAN -> {
+          this.pathPush(depth, current, true)
+          s.left(current)
+        }
+
+        IntervalComparison.MORE_THAN -> {
+          this.pathPush(depth, current, false)
+          s.right(current)
+        }
+      }
+      ++depth
+    }
+    return false
+  }
+
+  /**
+   * Remove `target`, the node found at the end of the path of length
+   * `depth` recorded by the descent, and rebalance the path.
+   */
+
+  private fun removeAt(
+    depth : Int,
+    target : Int
+  ) {
+    val s = this.store
+    val leftST = s.left(target)
+    val rightST = s.right(target)
+
+    /*
+     * If the node has no children, then it is replaced with nothing.
+     * If the node has only a single child, then the node is replaced by
+     * its own child.
+     */
+
+    if (leftST == NIL || rightST == NIL) {
+      if (this.listening) {
+        val removed = this.interval(target)
+        if (leftST == NIL && rightST == NIL) {
+          this.publish(Deleted("Leaf", removed))
+        } else if (leftST != NIL) {
+          this.publish(Deleted("SingleParentL", removed))
+        } else {
+          this.publish(Deleted("SingleParentR", removed))
+        }
+      }
+      s.free(target)
+      this.rebalancePath(depth, if (leftST == NIL) rightST else leftST)
+      --this.count
+      ++this.modCount
+      this.validate()
+      return
+    }
+
+    /*
+     * The node must have two children. The node takes the interval of its
+     * successor (the node with the smallest interval greater than the
+     * node's), and the successor is unlinked from the right subtree. The
+     * successor has no left child, so it is replaced by its right child.
+     */
+
+    val removed = if (this.listening) this.interval(target) else null
+
+    var pathDepth = depth
+    this.pathPush(pathDepth, target, false)
+    ++pathDepth
+
+    var successor = rightST
+    while (true) {
+      val next = s.left(successor)
+      if (next == NIL) {
+        break
+      }
+      this.pathPush(pathDepth, successor, true)
+      ++pathDepth
+      successor = next
+    }
+
+    val successorRight = s.right(successor)
+    if (this.listening) {
+      if (successorRight == NIL) {
+        this.publish(Deleted("Leaf", this.interval(successor)))
+      } else {
+        this.publish(Deleted("SingleParentR", this.interval(successor)))
+      }
+    }
+
+    s.setLower(target, s.lower(successor))
+    s.setUpper(target, s.upper(successor))
+    s.free(successor)
+    this.rebalancePath(pathDepth, successorRight)
+    --this.count
+    ++this.modCount
+    if (removed != null) {
+      this.publish(Deleted("Branch", removed))
+    }
+    this.validate()
+  }
+
+  private fun findMinimum(current : Int) : Int {
+    var node = current
+    while (true) {
+      val next = this.store.left(node)
+      if (next == NIL) {
+        return node
+      }
+      node = next
+    }
+  }
+
+  override fun find(value : IntervalType<Long>) : Boolean {
+    return this.find(value.lower(), value.upper())
+  }
+
+  /**
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return `true` if the exact interval is present in the tree
+   */
+
+  fun find(
+    lower : Long,
+    upper : Long
+  ) : Boolean {
+    this.checkNotClosed()
+
+    var current = this.root
+    while (current != NIL) {
+      current = when (this.compare(lower, upper, current)) {
+        IntervalComparison.EQUAL     -> return true
+        IntervalComparison.LESS_THAN -> this.store.left(current)
+        IntervalComparison.MORE_THAN -> this.store.right(current)
+      }
+    }
+    return false
+  }
+
+  override fun enableInternalValidation(enabled : Boolean) {
+    this.validation = enabled
+  }
+
+  override fun clear() {
+    this.checkNotClosed()
+
+    if (this.listening) {
+      this.publish(IntervalTreeChangeType.Cleared())
+    }
+    this.store.clear()
+    this.root = NIL
+    this.count = 0
+    ++this.modCount
+  }
+
+  /**
+   * Discard the tree's references to its storage, making the storage
+   * eligible for garbage collection; the memory itself is released when
+   * it is collected, not when this method returns. The tree cannot be
+   * used after it has been closed.
+   */
+
+  override fun close() {
+    if (!this.closed) {
+      this.closed = true
+      this.root = NIL
+      this.count = 0
+      ++this.modCount
+      this.store.close()
+    }
+  }
+
+  override fun minimum() : IntervalType<Long>? {
+    this.checkNotClosed()
+
+    if (this.root == NIL) {
+      return null
+    }
+    return this.interval(this.findMinimum(this.root))
+  }
+
+  override fun maximum() : IntervalType<Long>? {
+    this.checkNotClosed()
+
+    var current = this.root
+    if (current == NIL) {
+      return null
+    }
+    while (true) {
+      val next = this.store.right(current)
+      if (next == NIL) {
+        return this.interval(current)
+      }
+      current = next
+    }
+  }
+
+  override val size : Int
+    get() = this.count
+
+  override fun isEmpty() : Boolean {
+    return this.root == NIL
+  }
+
+  override fun iterator() : Iterator<IntervalType<Long>> {
+    this.checkNotClosed()
+    return NodeIterator()
+  }
+
+  /**
+   * An in-order iterator over the tree. The iterator holds a stack of the
+   * nodes whose intervals have yet to be returned, and whose right
+   * subtrees have yet to be visited; the stack is never deeper than the
+   * height of the tree. Intervals are allocated as they are returned. The
+   * iterator fails with a [ConcurrentModificationException] if the tree
+   * is modified or closed.
+   */
+
+  private inner class NodeIterator : Iterator<IntervalType<Long>> {
+    private val store = this@IntervalTreeLongPacked.store
+    private var stack : IntArray = IntArray(this.initialDepth())
+    private var stackSize : Int = 0
+    private val expectedModCount : Int = this@IntervalTreeLongPacked.modCount
+
+    init {
+      this.pushLeftSpine(this@IntervalTreeLongPacked.root)
+    }
+
+    private fun initialDepth() : Int {
+      val root = this@IntervalTreeLongPacked.root
+      return if (root == NIL) 1 else this.store.height(root) + 1
+    }
+
+    private fun pushLeftSpine(node : Int) {
+      var current = node
+      while (current != NIL) {
+        if (this.stackSize == this.stack.size) {
+          this.stack = this.stack.copyOf(this.stack.size * 2)
+        }
+        this.stack[this.stackSize] = current
+        ++this.stackSize
+        current = this.store.left(current)
+      }
+    }
+
+    private fun checkModification() {
+      if (this.expectedModCount != this@IntervalTreeLongPacked.modCount) {
+        throw ConcurrentModificationException()
+      }
+    }
+
+    override fun hasNext() : Boolean {
+      this.checkModification()
+      return this.stackSize > 0
+    }
+
+    override fun next() : IntervalType<Long> {
+      this.checkModification()
+      if (this.stackSize == 0) {
+        throw NoSuchElementException()
+      }
+
+      --this.stackSize
+      val node = this.stack[this.stackSize]
+      this.pushLeftSpine(this.store.right(node))
+      return this@IntervalTreeLongPacked.interval(node)
+    }
+  }
+
+  override fun overlapping(
+    interval : IntervalType<Long>
+  ) : Collection<IntervalType<Long>> {
+    return this.overlapping(interval.lower(), interval.upper())
+  }
+
+  /**
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return The set of intervals that overlap `[lower, upper]`, if any
+   */
+
+  fun overlapping(
+    lower : Long,
+    upper : Long
+  ) : Collection<IntervalType<Long>> {
+    val output = ArrayList<IntervalType<Long>>()
+    this.forEachOverlappingWhile(lower, upper) { l, u ->
+      output.add(IntervalL(l, u))
+    }
+    return output
+  }
+
+  override fun forEachOverlappingWhile(
+    interval : IntervalType<Long>,
+    action : (IntervalType<Long>) -> Boolean
+  ) : Boolean {
+    return this.forEachOverlappingWhile(
+      interval.lower(),
+      interval.upper()
+    ) { l, u -> action(IntervalL(l, u)) }
+  }
+
+  /**
+   * Call `visitor` for each interval that overlaps `[lower, upper]`, in
+   * order, until the visitor returns `false`. The bounds of each interval
+   * are passed to the visitor directly, and the walk itself allocates
+   * nothing. The visitor must not modify the tree.
+   *
+   * @param lower   The inclusive lower bound
+   * @param upper   The inclusive upper bound
+   * @param visitor The visitor
+   *
+   * @return `false` if the visitor stopped the walk early
+   */
+
+  fun forEachOverlappingWhile(
+    lower : Long,
+    upper : Long,
+    visitor : IntervalLongVisitorType
+  ) : Boolean {
+    this.checkNotClosed()
+    check(upper >= lower) { "Upper $upper must be >= lower $lower " }
+
+    if (this.root == NIL) {
+      return true
+    }
+    return this.overlappingAt(this.root, lower, upper, visitor)
+  }
+
+  private fun overlappingAt(
+    current : Int,
+    lower : Long,
+    upper : Long,
+    visitor : IntervalLongVisitorType
+  ) : Boolean {
+    val s = this.store
+    val lst = s.left(current)
+    if (lst != NIL && s.maximum(lst) >= lower) {
+      if (!this.overlappingAt(lst, lower, upper, visitor)) {
+        return false
+      }
+    }
+
+    /*
+     * Nodes are ordered by their lower bounds, so if the current node's
+     * interval begins after the requested interval ends, then nothing in
+     * the right subtree can overlap either.
+     */
+
+    val currentLower = s.lower(current)
+    if (currentLower > upper) {
+      return true
+    }
+
+    val currentUpper = s.upper(current)
+    if (lower <= currentUpper) {
+      if (!visitor.visit(currentLower, currentUpper)) {
+        return false
+      }
+    }
+
+    val rst = s.right(current)
+    if (rst != NIL && s.maximum(rst) >= lower) {
+      return this.overlappingAt(rst, lower, upper, visitor)
+    }
+    return true
+  }
+
+  /**
+   * @param point The point
+   *
+   * @return The set of intervals that contain `point`, if any
+   */
+
+  override fun stabbing(point : Long) : Collection<IntervalType<Long>> {
+    val output = ArrayList<IntervalType<Long>>()
+    this.forEachOverlappingWhile(point, point) { l, u ->
+      output.add(IntervalL(l, u))
+    }
+    return output
+  }
+
+  override fun anyOverlapping(interval : IntervalType<Long>) : Boolean {
+    return this.anyOverlapping(interval.lower(), interval.upper())
+  }
+
+  /**
+   * Determine if any interval overlaps `[lower, upper]`. The search stops
+   * at the first overlapping interval.
+   *
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return `true` if any interval in the tree overlaps `[lower, upper]`
+   */
+
+  fun anyOverlapping(
+    lower : Long,
+    upper : Long
+  ) : Boolean {
+    return !this.forEachOverlappingWhile(lower, upper) { _, _ -> false }
+  }
+
+  override fun countOverlapping(interval : IntervalType<Long>) : Int {
+    return this.countOverlapping(interval.lower(), interval.upper())
+  }
+
+  /*
+   * Intervals are ordered by their lower bounds, and each node holds the
+   * size of its subtree. An interval [l, u] overlaps [lower, upper] iff
+   * l <= upper and u >= lower. The overlapping intervals are therefore
+   * those that begin within [lower, upper] (counted by subtracting the
+   * ranks of the two bounds, without visiting them), plus those that begin
+   * before `lower` and end at or after it (counted by a walk that is pruned
+   * by the subtree maximums).
+   */
+
+  /**
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return The number of intervals that overlap `[lower, upper]`
+   */
+
+  fun countOverlapping(
+    lower : Long,
+    upper : Long
+  ) : Int {
+    this.checkNotClosed()
+    check(upper >= lower) { "Upper $upper must be >= lower $lower " }
+
+    return this.countLowerAtMost(upper) -
+      this.countLowerLessThan(lower) +
+      this.countStartingBefore(this.root, lower)
+  }
+
+  private fun countLowerAtMost(bound : Long) : Int {
+    val s = this.store
+    var count = 0
+    var current = this.root
+    while (current != NIL) {
+      current = if (s.lower(current) <= bound) {
+        count += this.sizeOf(s.left(current)) + 1
+        s.right(current)
+      } else {
+        s.left(current)
+      }
+    }
+    return count
+  }
+
+  private fun countLowerLessThan(bound : Long) : Int {
+    val s = this.store
+    var count = 0
+    var current = this.root
+    while (current != NIL) {
+      current = if (s.lower(current) < bound) {
+        count += this.sizeOf(s.left(current)) + 1
+        s.right(current)
+      } else {
+        s.left(current)
+      }
+    }
+    return count
+  }
+
+  private fun countStartingBefore(
+    current : Int,
+    lower : Long
+  ) : Int {
+    val s = this.store
+    if (current == NIL || s.maximum(current) < lower) {
+      return 0
+    }
+
+    var count = this.countStartingBefore(s.left(current), lower)
+    if (s.lower(current) < lower) {
+      if (s.upper(current) >= lower) {
+        ++count
+      }
+      count += this.countStartingBefore(s.right(current), lower)
+    }
+    return count
+  }
+}
@@ -0,0 +1,608 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.core
+
+import kotlin.math.max
+
+/**
+ * An immutable, persistent interval tree. Operations that would modify
+ * the tree instead return a new tree; the new tree shares all the nodes
+ * of the original tree except those on the path from the root to the
+ * modified node, which are copied. Both the original and the new tree
+ * remain valid and can be queried concurrently by any number of threads.
+ * Versions that are no longer referenced are reclaimed by the garbage
+ * collector.
+ *
+ * The tree is an AVL tree ordered and augmented in exactly the same way
+ * as [IntervalTree].
+ *
+ * @param <S> The type of scalar values
+ */
+
+class IntervalTreePersistent<S : Comparable<S>> private constructor(
+  private val root : Node<S>?
+) : Collection<IntervalType<S>> {
+
+  private class Node<S : Comparable<S>>(
+    val interval : IntervalType<S>,
+    val left : Node<S>?,
+    val right : Node<S>?,
+    val maximum : S,
+    val height : Int,
+    val size : Int
+  )
+
+  companion object {
+
+    private val EMPTY : IntervalTreePersistent<*> =
+      IntervalTreePersistent<Long>(null)
+
+    /**
+     * @return The empty tree
+     */
+
+    @JvmStatic
+    @Suppress("UNCHECKED_CAST")
+    fun <S : Comparable<S>> empty() : IntervalTreePersistent<S> {
+      return EMPTY as IntervalTreePersistent<S>
+    }
+
+    private fun <S : Comparable<S>> heightOf(node : Node<S>?) : Int {
+      return node?.height ?: 0
+    }
+
+    private fun <S : Comparable<S>> sizeOf(node : Node<S>?) : Int {
+      return node?.size ?: 0
+    }
+
+    /**
+     * Create a node, calculating its height, size, and maximum from the
+     * given children.
+     */
+
+    private fun <S : Comparable<S>> node(
+      interval : IntervalType<S>,
+      left : Node<S>?,
+      right : Node<S>?
+    ) : Node<S> {
+      var maximum = interval.upper()
+      if (left != null && left.maximum > maximum) {
+        maximum = left.maximum
+      }
+      if (right != null && right.maximum > maximum) {
+        maximum = right.maximum
+      }
+      return Node(
+        interval = interval,
+        left = left,
+        right = right,
+        maximum = maximum,
+        height = max(heightOf(left), heightOf(right)) + 1,
+        size = sizeOf(left) + sizeOf(right) + 1
+      )
+    }
+
+    /**
+     * Create a balanced node from the given children, where the heights
+     * of the children differ by at most two. New nodes are created for
+     * any rotations; the existing nodes are never modified.
+     */
+
+    private fun <S : Comparable<S>> balanced(
+      interval : IntervalType<S>,
+      left : Node<S>?,
+      right : Node<S>?
+    ) : Node<S> {
+      val heightL = heightOf(left)
+      val heightR = heightOf(right)
+
+      if (heightL > heightR + 1) {
+        val l = left!!
+        return if (heightOf(l.left) >= heightOf(l.right)) {
+          node(l.interval, l.left, node(interval, l.right, right))
+        } else {
+          val lr = l.right!!
+          node(
+            lr.interval,
+            node(l.interval, l.left, lr.left),
+            node(interval, lr.right, right)
+          )
+        }
+      }
+
+      if (heightR > heightL + 1) {
+        val r = right!!
+        return if (heightOf(r.right) >= heightOf(r.left)) {
+          node(r.interval, node(interval, left, r.left), r.right)
+        } else {
+          val rl = r.left!!
+          node(
+            rl.interval,
+            node(interval, left, rl.left),
+            node(r.interval, rl.right, r.right)
+          )
+        }
+      }
+
+      return node(interval, left, right)
+    }
+  }
+
+  private fun insertAt(
+    current : Node<S>?,
+    value : IntervalType<S>
+  ) : Node<S> {
+    if (current == null) {
+      return node(value, null, null)
+    }
+
+    return when (value.compare(current.interval)) {
+      IntervalComparison.EQUAL     -> {
+        current
+      }
+
+      IntervalComparison.LESS_THAN -> {
+        val newLeft = this.insertAt(current.left, value)
+        if (newLeft === current.left) {
+          current
+        } else {
+          balanced(current.interval, newLeft, current.right)
+        }
+      }
+
+      IntervalComparison.MORE_THAN -> {
+        val newRight = this.insertAt(current.right, value)
+        if (newRight === current.right) {
+          current
+        } else {
+          balanced(current.interval, current.left, newRight)
+        }
+      }
+    }
+  }
+
+  private fun removeAt(
+    current : Node<S>?,
+    value : IntervalType<S>
+  ) : Node<S>? {
+    if (current == null) {
+      return null
+    }
+
+    return when (value.compare(current.interval)) {
+      IntervalComparison.EQUAL     -> {
+        val leftST = current.left ?: return current.right
+        val rightST = current.right ?: return leftST
+
+        /*
+         * The node has two children, and so is replaced by its successor.
+         */
+
+        var successor : Node<S> = rightST
+        while (true) {
+          successor = successor.left ?: break
+        }
+        balanced(
+          successor.interval,
+          leftST,
+          this.removeMinimumAt(rightST)
+        )
+      }
+
+      IntervalComparison.LESS_THAN -> {
+        val newLeft = this.removeAt(current.left, value)
+        if (newLeft === current.left) {
+          current
+        } else {
+          balanced(current.interval, newLeft, current.right)
+        }
+      }
+
+      IntervalComparison.MORE_THAN -> {
+        val newRight = this.removeAt(current.right, value)
+        if (newRight === current.right) {
+          current
+        } else {
+          balanced(current.interval, current.left, newRight)
+        }
+      }
+    }
+  }
+
+  private fun removeMinimumAt(current : Node<S>) : Node<S>? {
+    val leftST = current.left ?: return current.right
+    return balanced(
+      current.interval,
+      this.removeMinimumAt(leftST),
+      current.right
+    )
+  }
+
+  /**
+   * Insert an interval into the tree.
+   *
+   * @param value The interval
+   *
+   * @return A tree containing `value`, or this tree if `value` was already
+   * present
+   */
+
+  fun insert(value : IntervalType<S>) : IntervalTreePersistent<S> {
+    val newRoot = this.insertAt(this.root, value)
+    return if (newRoot === this.root) {
+      this
+    } else {
+      IntervalTreePersistent(newRoot)
+    }
+  }
+
+  /**
+   * Remove an interval from the tree.
+   *
+   * @param value The interval
+   *
+   * @return A tree that does not contain `value`, or this tree if `value`
+   * was not present
+   */
+
+  fun remove(value : IntervalType<S>) : IntervalTreePersistent<S> {
+    val newRoot = this.removeAt(this.root, value)
+    return if (newRoot === this.root) {
+      this
+    } else {
+      IntervalTreePersistent(newRoot)
+    }
+  }
+
+  /**
+   * @param value The interval
+   *
+   * @return `true` if the tree contains `value`
+   */
+
+  fun find(value : IntervalType<S>) : Boolean {
+    var current = this.root
+    while (current != null) {
+      current = when (value.compare(current.interval)) {
+        IntervalComparison.EQUAL     -> return true
+        IntervalComparison.LESS_THAN -> current.left
+        IntervalComparison.MORE_THAN -> current.right
+      }
+    }
+    return false
+  }
+
+  /**
+   * @return The minimum interval in the tree, if any
+   */
+
+  fun minimum() : IntervalType<S>? {
+    var current = this.root ?: return null
+    while (true) {
+      current = current.left ?: return current.interval
+    }
+  }
+
+  /**
+   * @return The maximum interval in the tree, if any
+   */
+
+  fun maximum() : IntervalType<S>? {
+    var current = this.root ?: return null
+    while (true) {
+      current = current.right ?: return current.interval
+    }
+  }
+
+  /**
+   * @param interval The interval
+   *
+   * @return The intervals that overlap `interval`, in order
+   */
+
+  fun overlapping(
+    interval : IntervalType<S>
+  ) : Collection<IntervalType<S>> {
+    val output = ArrayList<IntervalType<S>>()
+    this.forEachOverlappingWhile(interval) { x ->
+      output.add(x)
+    }
+    return output
+  }
+
+  /**
+   * Call `action` for each interval that overlaps `interval`, in order,
+   * until `action` returns `false`.
+   *
+   * @param interval The interval
+   * @param action   The action
+   *
+   * @return `false` if `action` stopped the iteration early
+   */
+
+  fun forEachOverlappingWhile(
+    interval : IntervalType<S>,
+    action : (IntervalType<S>) -> Boolean
+  ) : Boolean {
+    val current = this.root ?: return true
+    return this.overlappingAt(
+      current,
+      interval,
+      interval.lower(),
+      interval.upper(),
+      action
+    )
+  }
+
+  private fun overlappingAt(
+    current : Node<S>,
+    interval : IntervalType<S>,
+    lower : S,
+    upper : S,
+    action : (IntervalType<S>) -> Boolean
+  ) : Boolean {
+    val lst = current.left
+    if (lst != null && IntervalBounds.atLeast(lst.maximum, lower)) {
+      if (!this.overlappingAt(lst, interval, lower, upper, action)) {
+        return false
+      }
+    }
+
+    if (IntervalBounds.greaterThan(current.interval.lower(), upper)) {
+      return true
+    }
+
+    if (interval.overlaps(current.interval)) {
+      if (!action(current.interval)) {
+        return false
+      }
+    }
+
+    val rst = current.right
+    if (rst != null && IntervalBounds.atLeast(rst.maximum, lower)) {
+      return this.overlappingAt(rst, interval, lower, upper, action)
+    }
+    return true
+  }
+
+  /**
+   * @param point The point
+   *
+   * @return The intervals that contain `point`, in order
+   */
+
+  fun stabbing(point : S) : Collection<IntervalType<S>> {
+    val output = ArrayList<IntervalType<S>>()
+    val current = this.root
+    if (current != null) {
+      this.stabbingAt(current, point, output)
+    }
+    return output
+  }
+
+  private fun stabbingAt(
+    current : Node<S>,
+    point : S,
+    output : MutableList<IntervalType<S>>
+  ) {
+    val lst = current.left
+    if (lst != null && IntervalBounds.atLeast(lst.maximum, point)) {
+      this.stabbingAt(lst, point, output)
+    }
+
+    if (IntervalBounds.greaterThan(current.interval.lower(), point)) {
+      return
+    }
+
+    if (IntervalBounds.atLeast(current.interval.upper(), point)) {
+      output.add(current.interval)
+    }
+
+    val rst = current.right
+    if (rst != null && IntervalBounds.atLeast(rst.maximum, point)) {
+      this.stabbingAt(rst, point, output)
+    }
+  }
+
+  /**
+   * @param interval The interval
+   *
+   * @return `true` if any interval in the tree overlaps `interval`
+   */
+
+  fun anyOverlapping(interval : IntervalType<S>) : Boolean {
+    return !this.forEachOverlappingWhile(interval) { false }
+  }
+
+  /**
+   * Count the intervals that overlap `interval` without visiting the
+   * intervals that begin within `interval`; see
+   * [IntervalTree.countOverlapping].
+   *
+   * @param interval The interval
+   *
+   * @return The number of intervals that overlap `interval`
+   */
+
+  fun countOverlapping(interval : IntervalType<S>) : Int {
+    val lower = interval.lower()
+    val upper = interval.upper()
+    return this.countLowerAtMost(upper) -
+      this.countLowerLessThan(lower) +
+      this.countStartingBefore(this.root, interval, lower)
+  }
+
+  private fun countLowerAtMost(bound : S) : Int {
+    var count = 0
+    var current = this.root
+    while (current != null) {
+      current = if (IntervalBounds.atMost(current.interval.lower(), bound)) {
+        count += sizeOf(current.left) + 1
+        current.right
+      } else {
+        current.left
+      }
+    }
+    return count
+  }
+
+  private fun countLowerLessThan(bound : S) : Int {
+    var count = 0
+    var current = this.root
+    while (current != null) {
+      current = if (IntervalBounds.lessThan(current.interval.lower(), bound)) {
+        count += sizeOf(current.left) + 1
+        current.right
+      } else {
+        current.left
+      }
+    }
+    return count
+  }
+
+  private fun countStartingBefore(
+    current : Node<S>?,
+    interval : IntervalType<S>,
+    lower : S
+  ) : Int {
+    if (current == null || IntervalBounds.lessThan(current.maximum, lower)) {
+      return 0
+    }
+
+    var count = this.countStartingBefore(current.left, interval, lower)
+    if (IntervalBounds.lessThan(current.interval.lower(), lower)) {
+      if (interval.overlaps(current.interval)) {
+        ++count
+      }
+      count += this.countStartingBefore(current.right, interval, lower)
+    }
+    return count
+  }
+
+  /**
+   * Check the internal invariants of the tree.
+   *
+   * @throws IllegalStateException If an invariant does not hold
+   */
+
+  internal fun validate() {
+    this.validateAt(this.root)
+  }
+
+  private fun validateAt(current : Node<S>?) {
+    if (current == null) {
+      return
+    }
+
+    val leftST = current.left
+    val rightST = current.right
+    if (leftST != null) {
+      val cmp = leftST.interval.compare(current.interval)
+      check(cmp == IntervalComparison.LESS_THAN) {
+        "Left value node ${leftST.interval} must be < current node value ${current.interval} but is $cmp"
+      }
+    }
+    if (rightST != null) {
+      val cmp = rightST.interval.compare(current.interval)
+      check(cmp == IntervalComparison.MORE_THAN) {
+        "Right value node ${rightST.interval} must be > current node value ${current.interval} but is $cmp"
+      }
+    }
+
+    val expected = node(current.interval, leftST, rightST)
+    check(Math.abs(heightOf(leftST) - heightOf(rightST)) <= 1) {
+      "Node ${current.interval} is unbalanced"
+    }
+    check(current.height == expected.height) {
+      "Height of node ${current.interval} is ${current.height} but should be ${expected.height}"
+    }
+    check(current.size == expected.size) {
+      "Size of node ${current.interval} is ${current.size} but should be ${expected.size}"
+    }
+    check(current.maximum.compareTo(expected.maximum) == 0) {
+      "Maximum of node ${current.interval} is ${current.maximum} but should be ${expected.maximum}"
+    }
+
+    this.validateAt(leftST)
+    this.validateAt(rightST)
+  }
+
+  override val size : Int
+    get() = sizeOf(this.root)
+
+  override fun isEmpty() : Boolean {
+    return this.root == null
+  }
+
+  override fun contains(element : IntervalType<S>) : Boolean {
+    return this.find(element)
+  }
+
+  override fun containsAll(elements : Collection<IntervalType<S>>) : Boolean {
+    for (x in elements) {
+      if (!this.find(x)) {
+        return false
+      }
+    }
+    return true
+  }
+
+  /**
+   * @return An iterator over the intervals in the tree, in order
+   */
+
+  override fun iterator() : Iterator<IntervalType<S>> {
+    return NodeIterator(this.root)
+  }
+
+  private class NodeIterator<S : Comparable<S>>(
+    root : Node<S>?
+  ) : Iterator<IntervalType<S>> {
+    private val stack : Array<Node<S>?> = arrayOfNulls(heightOf(root) + 1)
+    private var stackSize : Int = 0
+
+    init {
+      this.pushLeftSpine(root)
+    }
+
+    private fun pushLeftSpine(node : Node<S>?) {
+      var current = node
+      while (current != null) {
+        this.stack[this.stackSize] = current
+        ++this.stackSize
+        current = current.left
+      }
+    }
+
+    override fun hasNext() : Boolean {
+      return this.stackSize > 0
+    }
+
+    override fun next() : IntervalType<S> {
+      if (this.stackSize == 0) {
+        throw NoSuchElementException()
+      }
+
+      --this.stackSize
+      val node = this.stack[this.stackSize]!!
+      this.stack[this.stackSize] = null
+      this.pushLeftSpine(node.right)
+      return node.interval
+    }
+  }
+}
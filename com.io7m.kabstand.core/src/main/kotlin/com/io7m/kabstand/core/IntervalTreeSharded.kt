@@ -0,0 +1,628 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.core
+
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import java.util.concurrent.locks.StampedLock
+import java.util.function.Predicate
+import kotlin.math.max
+
+/**
+ * A thread-safe interval index that partitions the key space into a
+ * number of shards, each backed by its own [IntervalTree] and guarded by
+ * its own lock. Modifications that fall into different shards proceed in
+ * parallel.
+ *
+ * The key space is divided by a sorted list of boundaries `b(0) .. b(n-2)`
+ * into `n` shards, where shard `i` holds every interval whose lower bound
+ * lies in `[b(i-1), b(i))`. An interval is always held by the shard of
+ * its lower bound, even if its upper bound extends into later shards.
+ * Each shard keeps a summary of the greatest upper bound of any of its
+ * intervals; a query visits only the shards whose ranges begin before the
+ * query ends, and whose summaries show that they hold an interval that
+ * ends after the query begins.
+ *
+ * The boundaries are recalculated as the load shifts: each shard is
+ * checked after every 1024 insertions into it, and when a shard has grown
+ * to more than [REBALANCE_RATIO] times the average shard size, the shards
+ * are merged and re-split so that each holds (roughly) the same number of
+ * intervals. Intervals that share a lower bound are never divided between
+ * shards, and so heavily duplicated lower bounds may leave a shard that
+ * no rebalance can reduce; rebalancing is then deferred until some shard
+ * grows to more than [REBALANCE_RATIO] times the size of that shard.
+ * Rebalancing uses [IntervalTree.join] and [IntervalTree.split], and so
+ * takes `O(n log m)` time for `n` shards and `m` intervals. The change
+ * listener observes rebalancing as a series of
+ * [IntervalTreeChangeType.Joined] and [IntervalTreeChangeType.Split]
+ * events.
+ *
+ * Each operation on a single shard is atomic. Operations that span
+ * several shards (queries over wide intervals, iteration, [size], and the
+ * bulk operations) are performed one shard at a time, and are not atomic
+ * with respect to concurrent modifications of other shards. The change
+ * listener, and the actions passed to [forEachOverlapping] and
+ * [forEachOverlappingWhile], are called with shard locks held, and must
+ * not access the index.
+ *
+ * @param <S> The type of scalar values
+ */
+
+class IntervalTreeSharded<S : Comparable<S>> private constructor(
+  private val shardCount : Int,
+  @Volatile
+  private var layout : Layout<S>
+) : IntervalTreeDebuggableType<S> {
+
+  private class Shard<S : Comparable<S>>(
+    val tree : IntervalTree<S>
+  ) {
+    val lock = ReentrantReadWriteLock()
+
+    /*
+     * The number of intervals in the shard, and the greatest upper bound
+     * of any interval in the shard. Written with the shard's write lock
+     * held, and read without any lock for routing.
+     */
+
+    @Volatile
+    var size : Int = tree.size
+
+    @Volatile
+    var maximumUpper : S? = tree.maximumUpper()
+
+    /*
+     * The number of intervals inserted into the shard since the shard was
+     * last checked for overload. Guarded by the shard's write lock.
+     */
+
+    var insertsSinceCheck : Int = 0
+
+    fun refresh() {
+      this.size = this.tree.size
+      this.maximumUpper = this.tree.maximumUpper()
+    }
+  }
+
+  /*
+   * The boundaries and shards. A layout is never modified once published;
+   * rebalancing publishes a new layout.
+   */
+
+  private class Layout<S : Comparable<S>>(
+    val boundaries : List<S>,
+    val shards : List<Shard<S>>
+  ) {
+
+    /*
+     * The size of the largest shard when the layout was created. If many
+     * intervals share a lower bound, rebalancing cannot divide them, and
+     * the largest shard may remain overloaded; the next rebalance is then
+     * deferred until some shard outgrows this size, so that a layout that
+     * cannot be improved is not rebalanced repeatedly.
+     */
+
+    val largestShard : Int = shards.maxOf { shard -> shard.size }
+
+    /**
+     * @return The index of the shard that holds intervals with lower
+     * bound `lower`; the number of boundaries less than or equal to `lower`
+     */
+
+    fun shardOf(lower : S) : Int {
+      var low = 0
+      var high = this.boundaries.size
+      while (low < high) {
+        val middle = (low + high) ushr 1
+        if (this.boundaries[middle] <= lower) {
+          low = middle + 1
+        } else {
+          high = middle
+        }
+      }
+      return low
+    }
+
+    /**
+     * @return The index of the last shard that may hold intervals that
+     * begin at or before `upper`, comparing bounds as the queries do
+     * (see [IntervalBounds])
+     */
+
+    fun lastShardReaching(upper : S) : Int {
+      var low = 0
+      var high = this.boundaries.size
+      while (low < high) {
+        val middle = (low + high) ushr 1
+        if (IntervalBounds.atMost(this.boundaries[middle], upper)) {
+          low = middle + 1
+        } else {
+          high = middle
+        }
+      }
+      return low
+    }
+  }
+
+  /*
+   * Guards the layout. Operations read the layout optimistically, lock
+   * the shards they need, and then validate the read; rebalancing takes
+   * the lock exclusively, which invalidates all outstanding reads.
+   */
+
+  private val layoutLock = StampedLock()
+
+  companion object {
+
+    /**
+     * A shard is considered overloaded when it holds more than this many
+     * times the average number of intervals per shard.
+     */
+
+    const val REBALANCE_RATIO = 2
+
+    /*
+     * A shard is checked for overload after every this many insertions
+     * into it, so that the sizes of the other shards are inspected only
+     * occasionally.
+     */
+
+    private const val REBALANCE_CHECK_INTERVAL = 1024
+
+    /**
+     * Create an empty index with the given shard boundaries. The index will
+     * have `boundaries.size + 1` shards.
+     *
+     * @param boundaries The boundaries, in strictly increasing order
+     *
+     * @return An empty index
+     *
+     * @throws IllegalArgumentException If the boundaries are not strictly
+     * increasing
+     */
+
+    @JvmStatic
+    fun <S : Comparable<S>> create(
+      boundaries : List<S>
+    ) : IntervalTreeSharded<S> {
+      for (index in 1 until boundaries.size) {
+        require(boundaries[index - 1] < boundaries[index]) {
+          "Boundary ${boundaries[index - 1]} at index ${index - 1} must be < boundary ${boundaries[index]} at index $index"
+        }
+      }
+
+      val shards = ArrayList<Shard<S>>(boundaries.size + 1)
+      for (index in 0..boundaries.size) {
+        shards.add(Shard(IntervalTree.empty<S>() as IntervalTree<S>))
+      }
+      return IntervalTreeSharded(
+        boundaries.size + 1,
+        Layout(ArrayList(boundaries), shards)
+      )
+    }
+  }
+
+  /**
+   * Run `action` against the shard holding intervals with lower bound
+   * `lower`, with the shard's lock held in the given mode.
+   */
+
+  private inline fun <T> withShardOf(
+    lower : S,
+    write : Boolean,
+    action : (Shard<S>) -> T
+  ) : T {
+    while (true) {
+      val stamp = this.layoutLock.tryOptimisticRead()
+      if (stamp == 0L) {
+        this.awaitLayout()
+        continue
+      }
+
+      val shard = this.layout.let { it.shards[it.shardOf(lower)] }
+      val lock = if (write) shard.lock.writeLock() else shard.lock.readLock()
+      lock.lock()
+      try {
+        if (!this.layoutLock.validate(stamp)) {
+          continue
+        }
+        return action(shard)
+      } finally {
+        lock.unlock()
+      }
+    }
+  }
+
+  /**
+   * Run `action` with the layout locked in shared mode, so that the layout
+   * cannot be changed by rebalancing until `action` returns.
+   */
+
+  private inline fun <T> withLayout(action : (Layout<S>) -> T) : T {
+    val stamp = this.layoutLock.readLock()
+    try {
+      return action(this.layout)
+    } finally {
+      this.layoutLock.unlockRead(stamp)
+    }
+  }
+
+  /**
+   * Run `action` against each shard in turn, with each shard's lock held
+   * in the given mode, stopping if `action` returns `false`.
+   */
+
+  private fun forEachShard(
+    write : Boolean,
+    action : (Shard<S>) -> Boolean
+  ) {
+    this.withLayout { current ->
+      for (shard in current.shards) {
+        if (!this.withShard(shard, write, action)) {
+          return
+        }
+      }
+    }
+  }
+
+  /**
+   * Run `action` against each shard that could hold an interval that
+   * overlaps `[lower, upper]`, stopping if `action` returns `false`. The
+   * shards after the shard of `upper` hold only intervals that begin
+   * after `upper`, and the shards whose greatest upper bound is less than
+   * `lower` hold only intervals that end before `lower`; neither are
+   * visited.
+   */
+
+  private fun forEachShardOverlapping(
+    lower : S,
+    upper : S,
+    write : Boolean,
+    action : (Shard<S>) -> Boolean
+  ) {
+    this.withLayout { current ->
+      val last = current.lastShardReaching(upper)
+      for (index in 0..last) {
+        val shard = current.shards[index]
+        val maximumUpper = shard.maximumUpper
+        if (maximumUpper == null ||
+          IntervalBounds.lessThan(maximumUpper, lower)) {
+          continue
+        }
+        if (!this.withShard(shard, write, action)) {
+          return
+        }
+      }
+    }
+  }
+
+  private inline fun <T> withShard(
+    shard : Shard<S>,
+    write : Boolean,
+    action : (Shard<S>) -> T
+  ) : T {
+    val lock = if (write) shard.lock.writeLock() else shard.lock.readLock()
+    lock.lock()
+    try {
+      return action(shard)
+    } finally {
+      lock.unlock()
+    }
+  }
+
+  private fun awaitLayout() {
+    val stamp = this.layoutLock.readLock()
+    this.layoutLock.unlockRead(stamp)
+  }
+
+  /**
+   * @return The number of intervals held by each shard, in order
+   */
+
+  fun shardSizes() : List<Int> {
+    return this.layout.shards.map { shard -> shard.size }
+  }
+
+  /**
+   * @return The current shard boundaries
+   */
+
+  fun boundaries() : List<S> {
+    return this.layout.boundaries
+  }
+
+  /**
+   * Recalculate the shard boundaries so that each shard holds (roughly)
+   * the same number of intervals. This blocks all other operations on the
+   * index for the duration of the rebalance.
+   */
+
+  fun rebalance() {
+    val stamp = this.layoutLock.writeLock()
+    try {
+      val current = this.layout
+      for (shard in current.shards) {
+        shard.lock.writeLock().lock()
+      }
+      try {
+        this.layout = this.rebalanced(current)
+      } finally {
+        for (shard in current.shards) {
+          shard.lock.writeLock().unlock()
+        }
+      }
+    } finally {
+      this.layoutLock.unlockWrite(stamp)
+    }
+  }
+
+  private fun rebalanced(current : Layout<S>) : Layout<S> {
+    var all = current.shards[0].tree
+    for (index in 1 until current.shards.size) {
+      all = IntervalTree.join(all, current.shards[index].tree)
+    }
+
+    /*
+     * The new boundaries are the lower bounds of the intervals at evenly
+     * spaced ranks. Intervals may share lower bounds, and the boundaries
+     * must be strictly increasing, so a boundary that would not advance
+     * past the previous boundary is replaced by the next greater lower
+     * bound. If there are fewer distinct lower bounds than shards, the
+     * layout has fewer shards; later rebalances aim for the original
+     * number of shards again.
+     */
+
+    val total = all.size
+    val boundaries = ArrayList<S>(this.shardCount - 1)
+    if (total == 0) {
+      boundaries.addAll(current.boundaries)
+    } else {
+      for (index in 1 until this.shardCount) {
+        val rank = ((index.toLong() * total) / this.shardCount).toInt()
+        val boundary =
+          if (boundaries.isEmpty()) {
+            all.select(rank).lower()
+          } else {
+            lowerAfter(all, rank, boundaries.last()) ?: break
+          }
+        boundaries.add(boundary)
+      }
+    }
+
+    val shards = ArrayList<Shard<S>>(boundaries.size + 1)
+    var rest = all
+    for (boundary in boundaries) {
+      val split = rest.split(boundary)
+      shards.add(Shard(split.below))
+      rest = split.above
+    }
+    shards.add(Shard(rest))
+    return Layout(boundaries, shards)
+  }
+
+  /*
+   * Find the least lower bound greater than `previous` among the intervals
+   * with ranks at or above `rank`, by binary search over the ranks.
+   */
+
+  private fun lowerAfter(
+    all : IntervalTree<S>,
+    rank : Int,
+    previous : S
+  ) : S? {
+    var low = rank
+    var high = all.size
+    while (low < high) {
+      val middle = (low + high) ushr 1
+      if (all.select(middle).lower() > previous) {
+        high = middle
+      } else {
+        low = middle + 1
+      }
+    }
+    return if (low < all.size) {
+      all.select(low).lower()
+    } else {
+      null
+    }
+  }
+
+  private fun rebalanceIfOverloaded(shardSize : Int) {
+    val current = this.layout
+    var total = 0L
+    for (shard in current.shards) {
+      total += shard.size
+    }
+    val average = total / current.shards.size
+    val floor = max(average, current.largestShard.toLong())
+    if (shardSize > REBALANCE_RATIO * floor) {
+      this.rebalance()
+    }
+  }
+
+  override fun setChangeListener(
+    listener : (IntervalTreeChangeType<S>) -> Unit
+  ) {
+    this.forEachShard(true) { shard ->
+      shard.tree.setChangeListener(listener)
+      true
+    }
+  }
+
+  override fun enableInternalValidation(enabled : Boolean) {
+    this.forEachShard(true) { shard ->
+      shard.tree.enableInternalValidation(enabled)
+      true
+    }
+  }
+
+  override fun insert(value : IntervalType<S>) : Boolean {
+    var shardSize = 0
+    var check = false
+    val inserted = this.withShardOf(value.lower(), true) { shard ->
+      val result = shard.tree.insert(value)
+      shard.refresh()
+      if (result) {
+        ++shard.insertsSinceCheck
+        if (shard.insertsSinceCheck >= REBALANCE_CHECK_INTERVAL) {
+          shard.insertsSinceCheck = 0
+          shardSize = shard.size
+          check = true
+        }
+      }
+      result
+    }
+    if (check) {
+      this.rebalanceIfOverloaded(shardSize)
+    }
+    return inserted
+  }
+
+  override fun remove(value : IntervalType<S>) : Boolean {
+    return this.withShardOf(value.lower(), true) { shard ->
+      val result = shard.tree.remove(value)
+      shard.refresh()
+      result
+    }
+  }
+
+  override fun removeOverlapping(interval : IntervalType<S>) : Int {
+    var removed = 0
+    this.forEachShardOverlapping(interval.lower(), interval.upper(), true) { shard ->
+      removed += shard.tree.removeOverlapping(interval)
+      shard.refresh()
+      true
+    }
+    return removed
+  }
+
+  override fun removeContainedIn(interval : IntervalType<S>) : Int {
+    var removed = 0
+    this.forEachShardOverlapping(interval.lower(), interval.upper(), true) { shard ->
+      removed += shard.tree.removeContainedIn(interval)
+      shard.refresh()
+      true
+    }
+    return removed
+  }
+
+  override fun removeIf(predicate : Predicate<in IntervalType<S>>) : Boolean {
+    var removed = false
+    this.forEachShard(true) { shard ->
+      removed = shard.tree.removeIf(predicate) || removed
+      shard.refresh()
+      true
+    }
+    return removed
+  }
+
+  override fun clear() {
+    this.forEachShard(true) { shard ->
+      shard.tree.clear()
+      shard.refresh()
+      true
+    }
+  }
+
+  override fun find(value : IntervalType<S>) : Boolean {
+    return this.withShardOf(value.lower(), false) { shard ->
+      shard.tree.find(value)
+    }
+  }
+
+  override fun minimum() : IntervalType<S>? {
+    var result : IntervalType<S>? = null
+    this.forEachShard(false) { shard ->
+      result = shard.tree.minimum()
+      result == null
+    }
+    return result
+  }
+
+  override fun maximum() : IntervalType<S>? {
+    var result : IntervalType<S>? = null
+    this.forEachShard(false) { shard ->
+      result = shard.tree.maximum() ?: result
+      true
+    }
+    return result
+  }
+
+  override fun overlapping(
+    interval : IntervalType<S>
+  ) : Collection<IntervalType<S>> {
+    val output = ArrayList<IntervalType<S>>()
+    this.forEachOverlappingWhile(interval) { x ->
+      output.add(x)
+    }
+    return output
+  }
+
+  override fun forEachOverlappingWhile(
+    interval : IntervalType<S>,
+    action : (IntervalType<S>) -> Boolean
+  ) : Boolean {
+    var completed = true
+    this.forEachShardOverlapping(interval.lower(), interval.upper(), false) { shard ->
+      completed = shard.tree.forEachOverlappingWhile(interval, action)
+      completed
+    }
+    return completed
+  }
+
+  override fun stabbing(point : S) : Collection<IntervalType<S>> {
+    val output = ArrayList<IntervalType<S>>()
+    this.forEachShardOverlapping(point, point, false) { shard ->
+      output.addAll(shard.tree.stabbing(point))
+      true
+    }
+    return output
+  }
+
+  override fun countOverlapping(interval : IntervalType<S>) : Int {
+    var count = 0
+    this.forEachShardOverlapping(interval.lower(), interval.upper(), false) { shard ->
+      count += shard.tree.countOverlapping(interval)
+      true
+    }
+    return count
+  }
+
+  override val size : Int
+    get() {
+      return this.withLayout { current ->
+        var total = 0
+        for (shard in current.shards) {
+          total += shard.size
+        }
+        total
+      }
+    }
+
+  override fun isEmpty() : Boolean {
+    return this.size == 0
+  }
+
+  override fun iterator() : Iterator<IntervalType<S>> {
+    val output = ArrayList<IntervalType<S>>()
+    this.forEachShard(false) { shard ->
+      output.addAll(shard.tree)
+      true
+    }
+    return output.iterator()
+  }
+}
@@ -16,6 +16,9 @@
 
 package com.io7m.kabstand.core
 
+import java.util.concurrent.ForkJoinPool
+import java.util.function.Predicate
+
 /**
  * The type of mutable interval trees. Interval trees effectively act as
  * sorted sets, although they do not implement the full sorted set interface.
@@ -97,6 +100,71 @@ interface IntervalTreeType<S : Comparable<S>> : Collection<IntervalType<S>> {
     return changed
   }
 
+  /**
+   * Remove every interval that overlaps `interval`.
+   *
+   * @param interval The interval
+   *
+   * @return The number of intervals removed
+   */
+
+  fun removeOverlapping(interval : IntervalType<S>) : Int {
+    val matches = ArrayList(this.overlapping(interval))
+    for (x in matches) {
+      this.remove(x)
+    }
+    return matches.size
+  }
+
+  /**
+   * Remove every interval that is entirely contained within `interval`
+   * (that is, every interval `x` such that
+   * `interval.lower() <= x.lower()` and `x.upper() <= interval.upper()`).
+   * Floating-point bounds are compared numerically, as in
+   * [IntervalType.overlaps], so `-0.0` and `0.0` are equal.
+   *
+   * @param interval The interval
+   *
+   * @return The number of intervals removed
+   */
+
+  fun removeContainedIn(interval : IntervalType<S>) : Int {
+    val matches = ArrayList<IntervalType<S>>()
+    this.forEachOverlapping(interval) { x ->
+      if (IntervalBounds.atMost(interval.lower(), x.lower()) &&
+        IntervalBounds.atMost(x.upper(), interval.upper())) {
+        matches.add(x)
+      }
+    }
+    for (x in matches) {
+      this.remove(x)
+    }
+    return matches.size
+  }
+
+  /**
+   * Remove every interval for which `predicate` returns `true`. The
+   * predicate is evaluated exactly once for each interval, in order, and
+   * must not modify the tree.
+   *
+   * @param predicate The predicate
+   *
+   * @return `true` if any interval was removed
+   */
+
+  fun removeIf(predicate : Predicate<in IntervalType<S>>) : Boolean {
+    val matches = ArrayList<IntervalType<S>>()
+    for (x in this) {
+      if (predicate.test(x)) {
+        matches.add(x)
+      }
+    }
+    for (x in matches) {
+      this.remove(x)
+    }
+    return matches.isNotEmpty()
+  }
+
   /**
    * Remove all elements from the tree.
    */
@@ -131,6 +199,107 @@ interface IntervalTreeType<S : Comparable<S>> : Collection<IntervalType<S>> {
 
   fun overlapping(interval : IntervalType<S>) : Collection<IntervalType<S>>
 
+  /**
+   * Evaluate many overlap queries at once. The queries are divided into
+   * groups that are evaluated in parallel on `pool`. The tree must not be
+   * modified while the queries are being evaluated.
+   *
+   * @param queries The queries
+   * @param pool    The pool on which to evaluate the queries
+   *
+   * @return The intervals that overlap each query; the element at index `i`
+   * is equal to `overlapping(queries[i])`
+   */
+
+  fun overlappingBatch(
+    queries : List<IntervalType<S>>,
+    pool : ForkJoinPool
+  ) : List<Collection<IntervalType<S>>> {
+    val inputs = ArrayList(queries)
+    val outputs = arrayOfNulls<Collection<IntervalType<S>>>(inputs.size)
+    pool.invoke(IntervalTreeBatchTask(0, inputs.size) { lower, upper ->
+      for (index in lower until upper) {
+        outputs[index] = this.overlapping(inputs[index])
+      }
+    })
+    return outputs.map { x -> x!! }
+  }
+
+  /**
+   * @param point The point
+   *
+   * @return The set of intervals that contain `point`, if any
+   */
+
+  fun stabbing(point : S) : Collection<IntervalType<S>> {
+    return this.overlapping(IntervalPoint(point))
+  }
+
+  /**
+   * Call `action` for each interval that overlaps `interval`, in order.
+   * The action must not modify the tree.
+   *
+   * @param interval The interval
+   * @param action   The action
+   */
+
+  fun forEachOverlapping(
+    interval : IntervalType<S>,
+    action : (IntervalType<S>) -> Unit
+  ) {
+    this.forEachOverlappingWhile(interval) { x ->
+      action(x)
+      true
+    }
+  }
+
+  /**
+   * Call `action` for each interval that overlaps `interval`, in order,
+   * until `action` returns `false`. The action must not modify the tree.
+   *
+   * @param interval The interval
+   * @param action   The action
+   *
+   * @return `false` if `action` stopped the iteration early
+   */
+
+  fun forEachOverlappingWhile(
+    interval : IntervalType<S>,
+    action : (IntervalType<S>) -> Boolean
+  ) : Boolean {
+    for (x in this.overlapping(interval)) {
+      if (!action(x)) {
+        return false
+      }
+    }
+    return true
+  }
+
+  /**
+   * Determine if any interval overlaps `interval`. The search stops at the
+   * first overlapping interval.
+   *
+   * @param interval The interval
+   *
+   * @return `true` if any interval in the tree overlaps `interval`
+   */
+
+  fun anyOverlapping(interval : IntervalType<S>) : Boolean {
+    return !this.forEachOverlappingWhile(interval) { false }
+  }
+
+  /**
+   * @param interval The interval
+   *
+   * @return The number of intervals that overlap `interval`
+   */
+
+  fun countOverlapping(interval : IntervalType<S>) : Int {
+    var count = 0
+    this.forEachOverlapping(interval) { ++count }
+    return count
+  }
+
   override fun contains(element : IntervalType<S>) : Boolean {
     return this.find(element)
   }
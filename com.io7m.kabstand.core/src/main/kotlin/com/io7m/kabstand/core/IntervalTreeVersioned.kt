@@ -0,0 +1,204 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.core
+
+import com.io7m.kabstand.core.IntervalTreeChangeType.Deleted
+
+/**
+ * A mutable interval tree backed by a persistent tree. Each modification
+ * replaces the current version of the tree with a new version produced
+ * by path copying, and so taking a [snapshot] of the tree takes constant
+ * time and never copies any nodes. Snapshots are immutable and remain
+ * valid (and can be queried from any thread) regardless of any later
+ * modifications made to this tree.
+ *
+ * Iterators traverse the version of the tree that was current when the
+ * iterator was created, and are therefore unaffected by concurrent
+ * modifications.
+ *
+ * The tree itself is not thread-safe; modifications must be externally
+ * synchronized.
+ *
+ * @param <S> The type of scalar values
+ */
+
+class IntervalTreeVersioned<S : Comparable<S>> private constructor(
+  private var current : IntervalTreePersistent<S>,
+  private var listener : (IntervalTreeChangeType<S>) -> Unit,
+  private var validation : Boolean
+) : IntervalTreeDebuggableType<S> {
+
+  companion object {
+
+    /**
+     * @return An empty tree
+     */
+
+    @JvmStatic
+    fun <S : Comparable<S>> empty() : IntervalTreeVersioned<S> {
+      return IntervalTreeVersioned(
+        current = IntervalTreePersistent.empty(),
+        listener = { },
+        validation = false
+      )
+    }
+
+    /**
+     * Create a tree whose current version is `snapshot`.
+     *
+     * @param snapshot The initial version
+     *
+     * @return A tree
+     */
+
+    @JvmStatic
+    fun <S : Comparable<S>> fromSnapshot(
+      snapshot : IntervalTreePersistent<S>
+    ) : IntervalTreeVersioned<S> {
+      return IntervalTreeVersioned(
+        current = snapshot,
+        listener = { },
+        validation = false
+      )
+    }
+  }
+
+  private fun publish(change : IntervalTreeChangeType<S>) {
+    try {
+      this.listener(change)
+    } catch (e : Throwable) {
+      // Nothing we can do about it.
+    }
+  }
+
+  private fun validate() {
+    if (this.validation) {
+      this.current.validate()
+    }
+  }
+
+  /**
+   * Take a snapshot of the current version of the tree. This takes
+   * constant time.
+   *
+   * @return The current version of the tree
+   */
+
+  fun snapshot() : IntervalTreePersistent<S> {
+    return this.current
+  }
+
+  /**
+   * Replace the current version of the tree with `snapshot`. This takes
+   * constant time. The contents of the tree may change arbitrarily, and
+   * so a single [IntervalTreeChangeType.Cleared] event is published.
+   *
+   * @param snapshot The new version
+   */
+
+  fun restore(snapshot : IntervalTreePersistent<S>) {
+    this.current = snapshot
+    this.publish(IntervalTreeChangeType.Cleared())
+    this.validate()
+  }
+
+  override fun setChangeListener(
+    listener : (IntervalTreeChangeType<S>) -> Unit
+  ) {
+    this.listener = listener
+  }
+
+  override fun enableInternalValidation(enabled : Boolean) {
+    this.validation = enabled
+  }
+
+  override fun insert(value : IntervalType<S>) : Boolean {
+    val next = this.current.insert(value)
+    if (next === this.current) {
+      return false
+    }
+    this.current = next
+    this.publish(IntervalTreeChangeType.Created(value))
+    this.validate()
+    return true
+  }
+
+  override fun remove(value : IntervalType<S>) : Boolean {
+    val next = this.current.remove(value)
+    if (next === this.current) {
+      return false
+    }
+    this.current = next
+    this.publish(Deleted("PathCopy", value))
+    this.validate()
+    return true
+  }
+
+  override fun clear() {
+    this.publish(IntervalTreeChangeType.Cleared())
+    this.current = IntervalTreePersistent.empty()
+  }
+
+  override fun find(value : IntervalType<S>) : Boolean {
+    return this.current.find(value)
+  }
+
+  override fun minimum() : IntervalType<S>? {
+    return this.current.minimum()
+  }
+
+  override fun maximum() : IntervalType<S>? {
+    return this.current.maximum()
+  }
+
+  override fun overlapping(
+    interval : IntervalType<S>
+  ) : Collection<IntervalType<S>> {
+    return this.current.overlapping(interval)
+  }
+
+  override fun forEachOverlappingWhile(
+    interval : IntervalType<S>,
+    action : (IntervalType<S>) -> Boolean
+  ) : Boolean {
+    return this.current.forEachOverlappingWhile(interval, action)
+  }
+
+  override fun stabbing(point : S) : Collection<IntervalType<S>> {
+    return this.current.stabbing(point)
+  }
+
+  override fun anyOverlapping(interval : IntervalType<S>) : Boolean {
+    return this.current.anyOverlapping(interval)
+  }
+
+  override fun countOverlapping(interval : IntervalType<S>) : Int {
+    return this.current.countOverlapping(interval)
+  }
+
+  override val size : Int
+    get() = this.current.size
+
+  override fun isEmpty() : Boolean {
+    return this.current.isEmpty()
+  }
+
+  override fun iterator() : Iterator<IntervalType<S>> {
+    return this.current.iterator()
+  }
+}
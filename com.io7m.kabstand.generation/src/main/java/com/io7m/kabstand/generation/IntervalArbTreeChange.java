@@ -42,7 +42,11 @@ public final class IntervalArbTreeChange
           balanced(),
           created(),
           deleted(),
-          cleared()
+          cleared(),
+          batchInserted(),
+          batchDeleted(),
+          split(),
+          joined()
         );
       });
   }
@@ -66,6 +70,39 @@ public final class IntervalArbTreeChange
       .map(IntervalTreeChangeType.Created::new);
   }
 
+  private static Arbitrary<IntervalTreeChangeType<?>> batchInserted()
+  {
+    return Combinators.combine(
+      Arbitraries.strings(),
+      Arbitraries.defaultFor(IntervalD.class).list()
+    ).as(IntervalTreeChangeType.BatchInserted::new);
+  }
+
+  private static Arbitrary<IntervalTreeChangeType<?>> batchDeleted()
+  {
+    return Combinators.combine(
+      Arbitraries.strings(),
+      Arbitraries.defaultFor(IntervalD.class).list()
+    ).as(IntervalTreeChangeType.BatchDeleted::new);
+  }
+
+  private static Arbitrary<IntervalTreeChangeType<?>> split()
+  {
+    return Combinators.combine(
+      Arbitraries.doubles(),
+      Arbitraries.integers(),
+      Arbitraries.integers()
+    ).as(IntervalTreeChangeType.Split::new);
+  }
+
+  private static Arbitrary<IntervalTreeChangeType<?>> joined()
+  {
+    return Combinators.combine(
+      Arbitraries.integers(),
+      Arbitraries.integers()
+    ).as(IntervalTreeChangeType.Joined::new);
+  }
+
   private static Arbitrary<IntervalTreeChangeType<?>> balanced()
   {
     return Combinators.combine(
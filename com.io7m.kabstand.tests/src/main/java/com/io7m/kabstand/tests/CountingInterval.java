@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com\> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.tests;
+
+import com.io7m.kabstand.core.IntervalComparison;
+import com.io7m.kabstand.core.IntervalType;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An interval that counts every access to its bounds. Every comparison
+ * performed by a tree must read the bounds of the intervals involved, so
+ * the counter gives a measure of the work done by a tree operation.
+ *
+ * @param <S> The type of scalar values
+ */
+
+final class CountingInterval<S extends Comparable<S>>
+  implements IntervalType<S>
+{
+  private final AtomicLong counter;
+  private final IntervalType<S> delegate;
+
+  CountingInterval(
+    final AtomicLong inCounter,
+    final IntervalType<S> inDelegate)
+  {
+    this.counter =
+      Objects.requireNonNull(inCounter, "counter");
+    this.delegate =
+      Objects.requireNonNull(inDelegate, "delegate");
+  }
+
+  @Override
+  public boolean overlaps(
+    final IntervalType<S> other)
+  {
+    return this.lower().compareTo(other.upper()) <= 0
+           && other.lower().compareTo(this.upper()) <= 0;
+  }
+
+  @Override
+  public S size()
+  {
+    return this.delegate.size();
+  }
+
+  @Override
+  public S upper()
+  {
+    this.counter.incrementAndGet();
+    return this.delegate.upper();
+  }
+
+  @Override
+  public S lower()
+  {
+    this.counter.incrementAndGet();
+    return this.delegate.lower();
+  }
+
+  @Override
+  public IntervalType<S> upperMaximum(
+    final IntervalType<S> other)
+  {
+    this.counter.incrementAndGet();
+    return this.delegate.upperMaximum(other);
+  }
+
+  @Override
+  public IntervalComparison compare(
+    final IntervalType<S> other)
+  {
+    return IntervalType.DefaultImpls.compare(this, other);
+  }
+
+  @Override
+  public int compareTo(
+    final IntervalType<S> other)
+  {
+    return IntervalType.DefaultImpls.compareTo(this, other);
+  }
+
+  @Override
+  public String toString()
+  {
+    return this.delegate.toString();
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.tests;
+
+import com.io7m.kabstand.core.IntervalL;
+import com.io7m.kabstand.core.IntervalTreeAtomic;
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.Provide;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for interval trees with non-blocking readers.
+ */
+
+public final class IntervalTreeAtomicTest
+  extends IntervalTreeContract<IntervalL, Long>
+{
+  @Override
+  protected IntervalL interval(
+    final long lower,
+    final long upper)
+  {
+    return new IntervalL(lower, upper);
+  }
+
+  @Override
+  protected IntervalL point(
+    final Long point)
+  {
+    return new IntervalL(point, point);
+  }
+
+  @Provide
+  public Arbitrary<List<IntervalL>> intervals()
+  {
+    return Arbitraries.defaultFor(IntervalL.class)
+      .list();
+  }
+
+  @Override
+  protected IntervalTreeAtomic<Long> create()
+  {
+    final var t = IntervalTreeAtomic.<Long>empty();
+    t.enableInternalValidation(true);
+    return t;
+  }
+
+  /**
+   * A batch of modifications is published as a single version, and a
+   * failed batch publishes nothing.
+   */
+
+  @Test
+  public void testUpdate()
+  {
+    final var t = this.create();
+    final var before = t.snapshot();
+
+    final var after = t.update(tree -> {
+      tree.insert(new IntervalL(0L, 1L));
+      tree.insert(new IntervalL(2L, 3L));
+      tree.remove(new IntervalL(0L, 1L));
+      return kotlin.Unit.INSTANCE;
+    });
+
+    assertNotSame(before, after);
+    assertSame(after, t.snapshot());
+    assertTrue(before.isEmpty());
+    assertEquals(List.of(new IntervalL(2L, 3L)), List.copyOf(t));
+
+    assertThrows(IllegalStateException.class, () -> {
+      t.update(tree -> {
+        tree.insert(new IntervalL(4L, 5L));
+        throw new IllegalStateException();
+      });
+    });
+    assertSame(after, t.snapshot());
+    assertFalse(t.find(new IntervalL(4L, 5L)));
+  }
+
+  /**
+   * Readers running concurrently with writers only ever observe complete
+   * batches. Each writer inserts and then removes the pair of intervals
+   * {@code [2i, 2i]} and {@code [2i + 1, 2i + 1]} under a single query
+   * range, so a reader must always observe an even number of intervals in
+   * that range.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testConcurrentReadersWriters()
+    throws Exception
+  {
+    final var t = this.create();
+    t.enableInternalValidation(false);
+
+    final var executor = Executors.newFixedThreadPool(4);
+    try {
+      final var tasks = new ArrayList<Callable<Void>>();
+      for (int writer = 0; writer < 2; ++writer) {
+        final long base = writer * 1000L;
+        tasks.add(() -> {
+          for (int round = 0; round < 2000; ++round) {
+            final long lower = base + (round % 100) * 2L;
+            final var pair = List.of(
+              new IntervalL(lower, lower),
+              new IntervalL(lower + 1L, lower + 1L)
+            );
+            t.addAll(pair);
+            t.removeAll(pair);
+          }
+          return null;
+        });
+      }
+      for (int reader = 0; reader < 2; ++reader) {
+        tasks.add(() -> {
+          final var query = new IntervalL(0L, 2000L);
+          for (int round = 0; round < 2000; ++round) {
+            assertEquals(0, t.overlapping(query).size() % 2);
+            assertEquals(0, t.countOverlapping(query) % 2);
+            assertEquals(0, t.snapshot().size() % 2);
+          }
+          return null;
+        });
+      }
+
+      for (final var future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10L, TimeUnit.SECONDS));
+    }
+
+    assertTrue(t.isEmpty());
+  }
+}
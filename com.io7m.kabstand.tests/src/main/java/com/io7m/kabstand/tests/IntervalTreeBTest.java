@@ -41,6 +41,13 @@ public final class IntervalTreeBTest
     return new IntervalB(BigInteger.valueOf(lower), BigInteger.valueOf(upper));
   }
 
+  @Override
+  protected IntervalB point(
+    final BigInteger point)
+  {
+    return new IntervalB(point, point);
+  }
+
   @Provide
   public Arbitrary<List<IntervalB>> intervals()
   {
@@ -41,8 +41,11 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
@@ -70,6 +73,8 @@ public abstract class IntervalTreeContract<
     long lower,
     long upper);
 
+  protected abstract I point(S point);
+
   @Provide("intervals")
   protected abstract Arbitrary<List<I>> intervals();
 
@@ -143,6 +148,44 @@ public abstract class IntervalTreeContract<
     assertEquals(c, this.tree.size());
   }
 
+  /**
+   * The tree size tracks the number of distinct elements through inserts,
+   * removes, duplicate inserts, removes of missing elements, and clears.
+   *
+   * @param xs The elements
+   * @param ys The other elements
+   */
+
+  @Property
+  public final void testSizeTracksElements(
+    final @ForAll("intervals") List<I> xs,
+    final @ForAll("intervals") List<I> ys)
+  {
+    this.tree = this.create();
+    this.tree.setChangeListener(this::logChange);
+
+    final var present = new HashSet<I>();
+    for (final var x : xs) {
+      assertEquals(present.add(x), this.tree.insert(x));
+      assertEquals(present.size(), this.tree.size());
+      assertEquals(present.isEmpty(), this.tree.isEmpty());
+    }
+    for (final var y : ys) {
+      assertEquals(present.remove(y), this.tree.remove(y));
+      assertEquals(present.size(), this.tree.size());
+      assertEquals(present.isEmpty(), this.tree.isEmpty());
+    }
+
+    this.tree.clear();
+    assertEquals(0, this.tree.size());
+    assertTrue(this.tree.isEmpty());
+
+    for (final var x : xs) {
+      this.tree.insert(x);
+    }
+    assertEquals(new HashSet<>(xs).size(), this.tree.size());
+  }
+
   /**
    * For every element x inserted into a tree, the element is in the tree.
    * Elements that are not inserted are not in the tree.
@@ -282,6 +325,276 @@ public abstract class IntervalTreeContract<
     }
   }
 
+  /**
+   * Visiting the overlapping intervals visits exactly the intervals
+   * returned by overlapping(), in the same order, and stops early when
+   * asked.
+   *
+   * @param xs The elements
+   * @param ys The queries
+   */
+
+  @Property
+  public final void testOverlapsForEach(
+    final @ForAll("intervals") List<I> xs,
+    final @ForAll("intervals") List<I> ys)
+  {
+    this.tree = this.create();
+    this.tree.setChangeListener(this::logChange);
+
+    for (final var x : xs) {
+      this.tree.insert(x);
+    }
+
+    final var queries = new ArrayList<I>(xs);
+    queries.addAll(ys);
+
+    for (final var q : queries) {
+      final var expected = List.copyOf(this.tree.overlapping(q));
+
+      final var visited = new ArrayList<IntervalType<S>>();
+      this.tree.forEachOverlapping(q, x -> {
+        visited.add(x);
+        return Unit.INSTANCE;
+      });
+      assertEquals(expected, visited);
+
+      final var all = new ArrayList<IntervalType<S>>();
+      assertTrue(this.tree.forEachOverlappingWhile(q, all::add));
+      assertEquals(expected, all);
+
+      if (!expected.isEmpty()) {
+        final var first = new ArrayList<IntervalType<S>>();
+        assertFalse(this.tree.forEachOverlappingWhile(q, x -> {
+          first.add(x);
+          return Boolean.FALSE;
+        }));
+        assertEquals(List.of(expected.get(0)), first);
+      }
+    }
+  }
+
+  /**
+   * anyOverlapping() and countOverlapping() agree with overlapping().
+   *
+   * @param xs The elements
+   * @param ys The queries
+   */
+
+  @Property
+  public final void testOverlapsAnyCount(
+    final @ForAll("intervals") List<I> xs,
+    final @ForAll("intervals") List<I> ys)
+  {
+    this.tree = this.create();
+    this.tree.setChangeListener(this::logChange);
+
+    final var queries = new ArrayList<I>(ys);
+    for (final var x : xs) {
+      this.tree.insert(x);
+      queries.add(x);
+    }
+
+    for (final var q : queries) {
+      final var expected = this.tree.overlapping(q);
+      assertEquals(!expected.isEmpty(), this.tree.anyOverlapping(q));
+      assertEquals(expected.size(), this.tree.countOverlapping(q));
+    }
+  }
+
+  /**
+   * removeOverlapping() removes exactly the intervals that overlap the
+   * query, and leaves all other intervals in place.
+   *
+   * @param xs The elements
+   * @param ys The queries
+   */
+
+  @Property
+  public final void testRemoveOverlapping(
+    final @ForAll("intervals") List<I> xs,
+    final @ForAll("intervals") List<I> ys)
+  {
+    this.tree = this.create();
+    this.tree.setChangeListener(this::logChange);
+    this.tree.addAll(xs);
+
+    final var queries = new ArrayList<I>(ys);
+    queries.addAll(xs);
+
+    for (final var q : queries) {
+      final var expected = new ArrayList<>(this.tree);
+      final var removed = this.tree.overlapping(q);
+      expected.removeAll(removed);
+
+      assertEquals(removed.size(), this.tree.removeOverlapping(q));
+      assertEquals(expected, List.copyOf(this.tree));
+      assertFalse(this.tree.anyOverlapping(q));
+    }
+  }
+
+  /**
+   * removeContainedIn() removes exactly the intervals contained within the
+   * query, and leaves all other intervals in place. An interval is contained
+   * within the query if both of its bounds, as points, overlap the query.
+   *
+   * @param xs The elements
+   * @param ys The queries
+   */
+
+  @Property
+  public final void testRemoveContainedIn(
+    final @ForAll("intervals") List<I> xs,
+    final @ForAll("intervals") List<I> ys)
+  {
+    this.tree = this.create();
+    this.tree.setChangeListener(this::logChange);
+    this.tree.addAll(xs);
+
+    final var queries = new ArrayList<I>(ys);
+    queries.addAll(xs);
+
+    for (final var q : queries) {
+      final var expected = new ArrayList<IntervalType<S>>();
+      var removed = 0;
+      for (final var x : this.tree) {
+        if (q.overlaps(this.point(x.lower()))
+            && q.overlaps(this.point(x.upper()))) {
+          ++removed;
+        } else {
+          expected.add(x);
+        }
+      }
+
+      assertEquals(removed, this.tree.removeContainedIn(q));
+      assertEquals(expected, List.copyOf(this.tree));
+    }
+  }
+
+  /**
+   * removeIf() evaluates the predicate once for each interval, and
+   * removes exactly the intervals that match.
+   *
+   * @param xs The elements
+   */
+
+  @Property
+  public final void testRemoveIf(
+    final @ForAll("intervals") List<I> xs)
+  {
+    this.tree = this.create();
+    this.tree.setChangeListener(this::logChange);
+    this.tree.addAll(xs);
+
+    final var expected = new ArrayList<IntervalType<S>>();
+    final var tested = new ArrayList<IntervalType<S>>();
+    for (final var x : this.tree) {
+      if ((x.hashCode() & 1) != 0) {
+        expected.add(x);
+      }
+    }
+
+    final var before = List.copyOf(this.tree);
+    assertEquals(
+      expected.size() != before.size(),
+      this.tree.removeIf(x -> {
+        tested.add(x);
+        return (x.hashCode() & 1) == 0;
+      })
+    );
+    assertEquals(before, tested);
+    assertEquals(expected, List.copyOf(this.tree));
+
+    assertFalse(this.tree.removeIf(x -> false));
+    assertEquals(expected, List.copyOf(this.tree));
+    assertEquals(!expected.isEmpty(), this.tree.removeIf(x -> true));
+    assertTrue(this.tree.isEmpty());
+  }
+
+  /**
+   * Batch overlap queries return exactly what the individual queries
+   * return, in the order of the queries.
+   *
+   * @param xs The elements
+   * @param ys The queries
+   */
+
+  @Property
+  public final void testOverlappingBatch(
+    final @ForAll("intervals") List<I> xs,
+    final @ForAll("intervals") List<I> ys)
+  {
+    this.tree = this.create();
+    this.tree.setChangeListener(this::logChange);
+
+    final var queries = new ArrayList<IntervalType<S>>(ys);
+    queries.addAll(xs);
+    assertEquals(
+      queries.size(),
+      this.tree.overlappingBatch(queries, ForkJoinPool.commonPool()).size()
+    );
+
+    this.tree.addAll(xs);
+
+    final var results =
+      this.tree.overlappingBatch(queries, ForkJoinPool.commonPool());
+    assertEquals(queries.size(), results.size());
+    for (int index = 0; index < queries.size(); ++index) {
+      final var query = queries.get(index);
+      assertEquals(
+        List.copyOf(this.tree.overlapping(query)),
+        List.copyOf(results.get(index)),
+        String.format("Overlapping %s", query)
+      );
+    }
+  }
+
+  /**
+   * @param x The interval
+   * @param p The point
+   *
+   * @return {@code true} if {@code x} overlaps the interval {@code [p, p]}
+   */
+
+  private boolean containsPoint(
+    final IntervalType<S> x,
+    final S p)
+  {
+    return x.overlaps(this.point(p));
+  }
+
+  /**
+   * stabbing(p) returns exactly the intervals that contain p, in order.
+   *
+   * @param xs The elements
+   */
+
+  @Property
+  public final void testStabbing(
+    final @ForAll("intervals") List<I> xs)
+  {
+    this.tree = this.create();
+    this.tree.setChangeListener(this::logChange);
+
+    final var points = new ArrayList<S>();
+    for (final var x : xs) {
+      this.tree.insert(x);
+      points.add(x.lower());
+      points.add(x.upper());
+    }
+    points.add(this.interval(0L, 0L).lower());
+
+    final var unique = new TreeSet<>(xs);
+    for (final var p : points) {
+      final var expected =
+        unique.stream()
+          .filter(x -> this.containsPoint(x, p))
+          .collect(Collectors.toList());
+
+      assertEquals(expected, List.copyOf(this.tree.stabbing(p)));
+    }
+  }
+
   /**
    * The empty tree never contains an interval that overlaps.
    *
@@ -751,4 +1064,259 @@ public abstract class IntervalTreeContract<
       List.copyOf(o)
     );
   }
+
+  /**
+   * The complexity tests count the calls made to the bounds of the stored
+   * interval objects, and so only mean anything for trees that retain
+   * those objects and consult them during traversal. Trees that copy the
+   * bounds into primitive fields on insertion never call the bounds of the
+   * stored objects again, and would pass the tests vacuously; such trees
+   * override this method to return {@code false}, and the tests are
+   * skipped for them.
+   *
+   * @return {@code true} if the tree under test retains the inserted
+   * interval objects and reads their bounds during traversal
+   */
+
+  protected boolean retainsIntervals()
+  {
+    return true;
+  }
+
+  /**
+   * The maximum number of interval bound accesses permitted for a single
+   * insertion or removal in a tree of at most `n` elements. An AVL tree
+   * has a height of at most ~1.44 * log2(n + 2), and each level of the
+   * path examines a constant number of bounds.
+   *
+   * @param n The number of elements
+   *
+   * @return The maximum number of accesses
+   */
+
+  private static long accessBudget(
+    final int n)
+  {
+    final var log2 = Math.log(n + 2.0) / Math.log(2.0);
+    final var height = (long) Math.ceil(1.4405 * log2);
+    return 24L * (height + 1L);
+  }
+
+  private void checkAccessesLogarithmic(
+    final List<I> xs)
+  {
+    Assumptions.assumeTrue(this.retainsIntervals());
+
+    final var counter = new AtomicLong();
+    final var budget = accessBudget(xs.size());
+
+    final var debuggable = this.create();
+    debuggable.enableInternalValidation(false);
+    this.tree = debuggable;
+
+    final var inserted = new ArrayList<CountingInterval<S>>(xs.size());
+    for (final var x : xs) {
+      final var c = new CountingInterval<>(counter, x);
+      inserted.add(c);
+      counter.set(0L);
+      this.tree.insert(c);
+      final var accesses = counter.get();
+      assertTrue(
+        accesses <= budget,
+        String.format(
+          "Inserting %s with size %d took %d accesses (budget %d)",
+          x, this.tree.size(), accesses, budget)
+      );
+    }
+
+    for (final var c : inserted) {
+      counter.set(0L);
+      this.tree.remove(c);
+      final var accesses = counter.get();
+      assertTrue(
+        accesses <= budget,
+        String.format(
+          "Removing %s with size %d took %d accesses (budget %d)",
+          c, this.tree.size(), accesses, budget)
+      );
+    }
+
+    assertTrue(this.tree.isEmpty());
+  }
+
+  /**
+   * Insertions and removals only examine the nodes on a single path through
+   * the tree (plus constant rebalancing work), and so the number of
+   * comparisons is logarithmic in the size of the tree.
+   *
+   * @param xs The elements
+   */
+
+  @Property
+  public final void testInsertRemoveComparisonsLogarithmic(
+    final @ForAll("intervals") List<I> xs)
+  {
+    this.checkAccessesLogarithmic(xs);
+  }
+
+  /**
+   * Insertions and removals only examine the nodes on a single path through
+   * the tree (plus constant rebalancing work), and so the number of
+   * comparisons is logarithmic in the size of the tree.
+   */
+
+  @Test
+  public final void testInsertRemoveComparisonsLogarithmicLarge()
+  {
+    final var rng = new Random(0x6b616273L);
+    final var xs = new ArrayList<I>(4096);
+    for (int index = 0; index < 4096; ++index) {
+      final var lower = (long) rng.nextInt(1_000_000);
+      final var upper = lower + (long) rng.nextInt(1_000);
+      xs.add(this.interval(lower, upper));
+    }
+    this.checkAccessesLogarithmic(xs);
+  }
+
+  private static long overlapBudget(
+    final int n,
+    final int k)
+  {
+    final var log2 = Math.log(n + 2.0) / Math.log(2.0);
+    final var height = (long) Math.ceil(1.4405 * log2);
+    return 8L * ((long) k + 1L) * (height + 1L);
+  }
+
+  private void checkOverlapAccesses(
+    final List<I> xs,
+    final List<I> queries)
+  {
+    Assumptions.assumeTrue(this.retainsIntervals());
+
+    final var counter = new AtomicLong();
+
+    final var debuggable = this.create();
+    debuggable.enableInternalValidation(false);
+    this.tree = debuggable;
+
+    for (final var x : xs) {
+      this.tree.insert(new CountingInterval<>(counter, x));
+    }
+
+    for (final var q : queries) {
+      counter.set(0L);
+      final var results = this.tree.overlapping(q);
+      final var accesses = counter.get();
+      final var budget = overlapBudget(this.tree.size(), results.size());
+      assertTrue(
+        accesses <= budget,
+        String.format(
+          "Querying %s with size %d and %d results took %d accesses (budget %d)",
+          q, this.tree.size(), results.size(), accesses, budget)
+      );
+    }
+  }
+
+  /**
+   * Overlap queries only examine the nodes on the paths to the results
+   * (plus the paths that bound the search), and so the number of nodes
+   * visited is O((k + 1) log n) for k results.
+   *
+   * @param xs The elements
+   * @param ys The queries
+   */
+
+  @Property
+  public final void testOverlappingVisitsBounded(
+    final @ForAll("intervals") List<I> xs,
+    final @ForAll("intervals") List<I> ys)
+  {
+    final var queries = new ArrayList<I>(xs);
+    queries.addAll(ys);
+    this.checkOverlapAccesses(xs, queries);
+  }
+
+  /**
+   * Overlap queries only examine the nodes on the paths to the results
+   * (plus the paths that bound the search), and so the number of nodes
+   * visited is O((k + 1) log n) for k results. In particular, narrow
+   * queries near either end of a large tree do not visit the rest of the
+   * tree.
+   */
+
+  @Test
+  public final void testOverlappingVisitsBoundedLarge()
+  {
+    final var rng = new Random(0x6b616273L);
+    final var xs = new ArrayList<I>(4096);
+    for (int index = 0; index < 4096; ++index) {
+      final var lower = (long) rng.nextInt(1_000_000);
+      final var upper = lower + (long) rng.nextInt(1_000);
+      xs.add(this.interval(lower, upper));
+    }
+
+    final var queries = new ArrayList<I>();
+    queries.add(this.interval(0L, 10L));
+    queries.add(this.interval(1_000_990L, 1_001_000L));
+    for (int index = 0; index < 64; ++index) {
+      final var lower = (long) rng.nextInt(1_000_000);
+      queries.add(this.interval(lower, lower + (long) rng.nextInt(100)));
+    }
+    this.checkOverlapAccesses(xs, queries);
+  }
+
+  /**
+   * Counting overlapping intervals does not visit the intervals that begin
+   * within the query, and so wide queries are counted in time proportional
+   * to the number of intervals that begin before the query and extend into
+   * it.
+   */
+
+  @Test
+  public final void testCountOverlappingVisitsBoundedLarge()
+  {
+    Assumptions.assumeTrue(this.retainsIntervals());
+
+    final var rng = new Random(0x6b616273L);
+    final var counter = new AtomicLong();
+
+    final var debuggable = this.create();
+    debuggable.enableInternalValidation(false);
+    this.tree = debuggable;
+
+    final var xs = new ArrayList<I>(4096);
+    for (int index = 0; index < 4096; ++index) {
+      final var lower = (long) rng.nextInt(1_000_000);
+      final var upper = lower + (long) rng.nextInt(1_000);
+      final var x = this.interval(lower, upper);
+      xs.add(x);
+      this.tree.insert(new CountingInterval<>(counter, x));
+    }
+
+    for (int index = 0; index < 64; ++index) {
+      final var lower = (long) rng.nextInt(1_000_000);
+      final var q = this.interval(lower, lower + 500_000L);
+      final var start = q.lower();
+
+      final var startingBefore =
+        (int) new HashSet<>(xs)
+          .stream()
+          .filter(x -> x.lower().compareTo(start) < 0)
+          .filter(x -> x.upper().compareTo(start) >= 0)
+          .count();
+
+      counter.set(0L);
+      final var count = this.tree.countOverlapping(q);
+      final var accesses = counter.get();
+      final var budget = overlapBudget(this.tree.size(), startingBefore);
+
+      assertEquals(this.tree.overlapping(q).size(), count);
+      assertTrue(
+        accesses <= budget,
+        String.format(
+          "Counting %s with size %d and %d results took %d accesses (budget %d)",
+          q, this.tree.size(), count, accesses, budget)
+      );
+    }
+  }
 }
@@ -19,11 +19,24 @@ package com.io7m.kabstand.tests;
 import com.io7m.kabstand.core.IntervalD;
 import com.io7m.kabstand.core.IntervalTree;
 import com.io7m.kabstand.core.IntervalTreeDebuggableType;
+import com.io7m.kabstand.core.IntervalTreeDouble;
+import com.io7m.kabstand.core.IntervalTreeSharded;
+import com.io7m.kabstand.core.IntervalTreeType;
+import com.io7m.kabstand.core.IntervalTreeVersioned;
+import com.io7m.kabstand.core.IntervalType;
 import net.jqwik.api.Arbitraries;
 import net.jqwik.api.Arbitrary;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
 import net.jqwik.api.Provide;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 /**
  * Tests for interval trees.
@@ -40,6 +53,13 @@ public final class IntervalTreeDTest
     return new IntervalD(lower, upper);
   }
 
+  @Override
+  protected IntervalD point(
+    final Double point)
+  {
+    return new IntervalD(point, point);
+  }
+
   @Provide
   public Arbitrary<List<IntervalD>> intervals()
   {
@@ -54,4 +74,179 @@ public final class IntervalTreeDTest
     t.enableInternalValidation(true);
     return t;
   }
+
+  /**
+   * Overlap queries agree with a linear scan using
+   * {@link IntervalD#overlaps}, which compares bounds numerically, and so
+   * considers {@code -0.0} and {@code 0.0} to be equal even though they are
+   * ordered distinctly in the tree. This holds for the generic tree, the
+   * persistent tree, and the sharded index.
+   *
+   * @param xs The elements
+   * @param ys The queries
+   */
+
+  @Property
+  public void testSignedZeroOverlapping(
+    final @ForAll("intervals") List<IntervalD> xs,
+    final @ForAll("intervals") List<IntervalD> ys)
+  {
+    final var zeroes = List.of(
+      new IntervalD(-0.0, -0.0),
+      new IntervalD(-0.0, 0.0),
+      new IntervalD(0.0, 0.0),
+      new IntervalD(-1.0, -0.0),
+      new IntervalD(0.0, 1.0)
+    );
+
+    final var all = new ArrayList<IntervalD>(xs);
+    all.addAll(zeroes);
+    final var queries = new ArrayList<IntervalType<Double>>(ys);
+    queries.addAll(all);
+
+    final List<IntervalTreeType<Double>> trees = List.of(
+      this.create(),
+      IntervalTreeVersioned.<Double>empty(),
+      IntervalTreeSharded.<Double>create(List.of(-0.0, 0.0))
+    );
+
+    for (final var t : trees) {
+      for (final var x : all) {
+        t.insert(x);
+      }
+
+      final var contents = List.copyOf(t);
+      final var batch =
+        t.overlappingBatch(queries, ForkJoinPool.commonPool());
+
+      for (int index = 0; index < queries.size(); ++index) {
+        final var q = queries.get(index);
+        final var expected =
+          contents.stream()
+            .filter(q::overlaps)
+            .collect(Collectors.toList());
+
+        final var message = String.format("Overlapping %s in %s", q, t);
+        assertEquals(expected, List.copyOf(t.overlapping(q)), message);
+        assertEquals(expected, List.copyOf(batch.get(index)), message);
+        assertEquals(expected.size(), t.countOverlapping(q), message);
+        assertEquals(!expected.isEmpty(), t.anyOverlapping(q), message);
+      }
+    }
+  }
+
+  /**
+   * Stabbing queries agree with a linear scan over the intervals that
+   * overlap {@code [p, p]} when the tree holds signed zeroes, and so
+   * {@code stabbing(p)} is equivalent to {@code overlapping([p, p])}.
+   *
+   * @param xs The elements
+   */
+
+  @Property
+  public void testSignedZeroStabbing(
+    final @ForAll("intervals") List<IntervalD> xs)
+  {
+    final var all = new ArrayList<IntervalD>(xs);
+    all.add(new IntervalD(-0.0, -0.0));
+    all.add(new IntervalD(-0.0, 0.0));
+    all.add(new IntervalD(0.0, 0.0));
+    all.add(new IntervalD(-1.0, -0.0));
+    all.add(new IntervalD(0.0, 1.0));
+
+    final var points = new ArrayList<Double>();
+    points.add(-0.0);
+    points.add(0.0);
+    for (final var x : all) {
+      points.add(x.lower());
+      points.add(x.upper());
+    }
+
+    final List<IntervalTreeType<Double>> trees = List.of(
+      this.create(),
+      IntervalTreeVersioned.<Double>empty(),
+      IntervalTreeSharded.<Double>create(List.of(-0.0, 0.0)),
+      IntervalTreeDouble.empty()
+    );
+
+    for (final var t : trees) {
+      for (final var x : all) {
+        t.insert(x);
+      }
+
+      final var contents = List.copyOf(t);
+      for (final var p : points) {
+        final var q = new IntervalD(p, p);
+        final var expected =
+          contents.stream()
+            .filter(q::overlaps)
+            .collect(Collectors.toList());
+
+        final var message = String.format("Stabbing %s in %s", p, t);
+        assertEquals(expected, List.copyOf(t.stabbing(p)), message);
+        assertEquals(expected, List.copyOf(t.overlapping(q)), message);
+      }
+    }
+  }
+
+  /**
+   * Bulk removals agree with overlapping() when the tree holds signed
+   * zeroes: removeOverlapping() removes exactly the intervals reported as
+   * overlapping, and removeContainedIn() removes exactly the intervals
+   * whose bounds both lie within the query numerically.
+   *
+   * @param xs The elements
+   * @param ys The queries
+   */
+
+  @Property
+  public void testSignedZeroRemoval(
+    final @ForAll("intervals") List<IntervalD> xs,
+    final @ForAll("intervals") List<IntervalD> ys)
+  {
+    final var all = new ArrayList<IntervalD>(xs);
+    all.add(new IntervalD(-0.0, -0.0));
+    all.add(new IntervalD(-0.0, 0.0));
+    all.add(new IntervalD(0.0, 0.0));
+    all.add(new IntervalD(-1.0, -0.0));
+    all.add(new IntervalD(0.0, 1.0));
+
+    final var queries = new ArrayList<IntervalD>(ys);
+    queries.add(new IntervalD(-0.0, -0.0));
+    queries.add(new IntervalD(0.0, 0.0));
+    queries.add(new IntervalD(-1.0, -0.0));
+    queries.add(new IntervalD(0.0, 1.0));
+
+    for (final var q : queries) {
+      final List<IntervalTreeType<Double>> trees = List.of(
+        this.create(),
+        IntervalTreeVersioned.<Double>empty(),
+        IntervalTreeSharded.<Double>create(List.of(-0.0, 0.0)),
+        IntervalTreeDouble.empty()
+      );
+
+      for (final var t : trees) {
+        for (final var x : all) {
+          t.insert(x);
+        }
+
+        final var contents = List.copyOf(t);
+        final var contained =
+          contents.stream()
+            .filter(x -> q.lower() <= x.lower() && x.upper() <= q.upper())
+            .collect(Collectors.toList());
+
+        final var message = String.format("Removing %s from %s", q, t);
+        assertEquals(contained.size(), t.removeContainedIn(q), message);
+        for (final var x : contained) {
+          assertFalse(t.contains(x), message);
+        }
+        assertEquals(contents.size() - contained.size(), t.size(), message);
+
+        final var overlapping = List.copyOf(t.overlapping(q));
+        assertEquals(overlapping.size(), t.removeOverlapping(q), message);
+        assertFalse(t.anyOverlapping(q), message);
+      }
+    }
+  }
 }
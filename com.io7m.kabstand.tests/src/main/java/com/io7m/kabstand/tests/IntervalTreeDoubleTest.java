@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com\> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.tests;
+
+import com.io7m.kabstand.core.IntervalD;
+import com.io7m.kabstand.core.IntervalTree;
+import com.io7m.kabstand.core.IntervalTreeDouble;
+import com.io7m.kabstand.core.IntervalType;
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for interval trees specialized to double values.
+ */
+
+public final class IntervalTreeDoubleTest
+  extends IntervalTreePrimitiveContract<IntervalD, Double, IntervalTreeDouble>
+{
+  @Override
+  protected IntervalD interval(
+    final long lower,
+    final long upper)
+  {
+    return new IntervalD(lower, upper);
+  }
+
+  @Override
+  protected IntervalD point(
+    final Double point)
+  {
+    return new IntervalD(point, point);
+  }
+
+  @Provide
+  public Arbitrary<List<IntervalD>> intervals()
+  {
+    return Arbitraries.defaultFor(IntervalD.class)
+      .list();
+  }
+
+  @Override
+  protected IntervalTreeDouble create()
+  {
+    final var t = IntervalTreeDouble.empty();
+    t.enableInternalValidation(true);
+    return t;
+  }
+
+  /**
+   * The specialized tree orders intervals exactly as the generic tree does,
+   * including the handling of signed zeroes, and returns exactly the
+   * intervals that overlap each query.
+   *
+   * @param xs The elements
+   * @param ys The queries
+   */
+
+  @Property
+  public void testSameAsGeneric(
+    final @ForAll("intervals") List<IntervalD> xs,
+    final @ForAll("intervals") List<IntervalD> ys)
+  {
+    final var t = this.create();
+    final var g = IntervalTree.<Double>empty();
+
+    final var all = new ArrayList<IntervalD>(xs);
+    all.add(new IntervalD(-0.0, -0.0));
+    all.add(new IntervalD(-0.0, 0.0));
+    all.add(new IntervalD(0.0, 0.0));
+    all.add(new IntervalD(-1.0, -0.0));
+
+    for (final var x : all) {
+      assertEquals(g.insert(x), t.insert(x));
+    }
+    assertEquals(List.copyOf(g), List.copyOf(t));
+
+    final var queries = new ArrayList<IntervalD>(ys);
+    queries.addAll(all);
+    queries.add(new IntervalD(0.0, 1.0));
+    for (final var y : queries) {
+      final var expected = new ArrayList<IntervalD>();
+      for (final var x : g) {
+        if (x.overlaps(y)) {
+          expected.add((IntervalD) x);
+        }
+      }
+      assertEquals(
+        expected,
+        List.copyOf(t.overlapping(y)),
+        String.format("Overlapping %s", y)
+      );
+    }
+
+    for (final var x : xs) {
+      assertEquals(g.remove(x), t.remove(x));
+    }
+    assertEquals(List.copyOf(g), List.copyOf(t));
+  }
+
+  @Override
+  protected PrimitiveOverloads<Double> primitive(
+    final IntervalTreeDouble tree)
+  {
+    return new PrimitiveOverloads<>()
+    {
+      @Override
+      public boolean insert(
+        final Double lower,
+        final Double upper)
+      {
+        return tree.insert(lower, upper);
+      }
+
+      @Override
+      public boolean remove(
+        final Double lower,
+        final Double upper)
+      {
+        return tree.remove(lower, upper);
+      }
+
+      @Override
+      public boolean find(
+        final Double lower,
+        final Double upper)
+      {
+        return tree.find(lower, upper);
+      }
+
+      @Override
+      public Collection<IntervalType<Double>> overlapping(
+        final Double lower,
+        final Double upper)
+      {
+        return tree.overlapping(lower, upper);
+      }
+
+      @Override
+      public boolean forEachOverlappingWhile(
+        final Double lower,
+        final Double upper,
+        final BiPredicate<Double, Double> visitor)
+      {
+        return tree.forEachOverlappingWhile(lower, upper, visitor::test);
+      }
+
+      @Override
+      public int countOverlapping(
+        final Double lower,
+        final Double upper)
+      {
+        return tree.countOverlapping(lower, upper);
+      }
+
+      @Override
+      public boolean anyOverlapping(
+        final Double lower,
+        final Double upper)
+      {
+        return tree.anyOverlapping(lower, upper);
+      }
+    };
+  }
+}
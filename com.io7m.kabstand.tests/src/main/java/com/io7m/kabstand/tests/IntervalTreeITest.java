@@ -40,6 +40,13 @@ public final class IntervalTreeITest
     return new IntervalI(Math.toIntExact(lower), Math.toIntExact(upper));
   }
 
+  @Override
+  protected IntervalI point(
+    final Integer point)
+  {
+    return new IntervalI(point, point);
+  }
+
   @Provide
   public Arbitrary<List<IntervalI>> intervals()
   {
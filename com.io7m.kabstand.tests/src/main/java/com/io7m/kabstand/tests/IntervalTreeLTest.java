@@ -18,13 +18,32 @@ package com.io7m.kabstand.tests;
 
 import com.io7m.kabstand.core.IntervalL;
 import com.io7m.kabstand.core.IntervalTree;
+import com.io7m.kabstand.core.IntervalTreeChangeType;
 import com.io7m.kabstand.core.IntervalTreeDebuggableType;
+import com.io7m.kabstand.core.IntervalType;
 import net.jqwik.api.Arbitraries;
 import net.jqwik.api.Arbitrary;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
 import net.jqwik.api.Provide;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Tests for interval trees.
@@ -41,6 +60,13 @@ public final class IntervalTreeLTest
     return new IntervalL(lower, upper);
   }
 
+  @Override
+  protected IntervalL point(
+    final Long point)
+  {
+    return new IntervalL(point, point);
+  }
+
   @Provide
   public Arbitrary<List<IntervalL>> intervals()
   {
@@ -55,4 +81,627 @@ public final class IntervalTreeLTest
     t.enableInternalValidation(true);
     return t;
   }
+
+  /**
+   * Removing every other element through the iterator leaves exactly the
+   * remaining elements, and every element is still visited once.
+   *
+   * @param xs The elements
+   */
+
+  @Property
+  public void testIteratorRemove(
+    final @ForAll("intervals") List<IntervalL> xs)
+  {
+    final var unique = new TreeSet<>(xs);
+    final var t = this.create();
+    for (final var x : unique) {
+      t.insert(x);
+    }
+
+    final var visited = new ArrayList<IntervalL>();
+    final var kept = new TreeSet<IntervalL>();
+    final var iter = t.iterator();
+    var remove = false;
+    while (iter.hasNext()) {
+      final var x = (IntervalL) iter.next();
+      visited.add(x);
+      if (remove) {
+        iter.remove();
+      } else {
+        kept.add(x);
+      }
+      remove = !remove;
+    }
+
+    assertEquals(List.copyOf(unique), visited);
+    assertEquals(kept.size(), t.size());
+    assertEquals(List.copyOf(kept), List.copyOf(t));
+  }
+
+  /**
+   * Iterators fail fast if the tree is modified.
+   */
+
+  @Test
+  public void testIteratorConcurrentModification()
+  {
+    final var t = this.create();
+    t.insert(new IntervalL(0L, 1L));
+    t.insert(new IntervalL(2L, 3L));
+
+    final var iter = t.iterator();
+    iter.next();
+    t.insert(new IntervalL(4L, 5L));
+    assertThrows(ConcurrentModificationException.class, iter::hasNext);
+    assertThrows(ConcurrentModificationException.class, iter::next);
+    assertThrows(ConcurrentModificationException.class, iter::remove);
+  }
+
+  /**
+   * Iterator misuse is rejected.
+   */
+
+  @Test
+  public void testIteratorMisuse()
+  {
+    final var t = this.create();
+    t.insert(new IntervalL(0L, 1L));
+
+    final var iter = t.iterator();
+    assertThrows(IllegalStateException.class, iter::remove);
+    iter.next();
+    iter.remove();
+    assertThrows(IllegalStateException.class, iter::remove);
+    assertFalse(iter.hasNext());
+    assertThrows(NoSuchElementException.class, iter::next);
+  }
+
+  /**
+   * Trees built from sorted input contain exactly the same elements as
+   * trees built by insertion, answer queries identically, and remain valid
+   * as elements are removed.
+   *
+   * @param xs The elements
+   */
+
+  @Property
+  public void testFromSorted(
+    final @ForAll("intervals") List<IntervalL> xs)
+  {
+    final var t = this.create();
+    for (final var x : xs) {
+      t.insert(x);
+    }
+
+    final var sorted = new ArrayList<IntervalL>(new TreeSet<>(xs));
+    final var b = IntervalTree.<Long>fromSorted(List.copyOf(sorted));
+    b.enableInternalValidation(true);
+    assertEquals(sorted.size(), b.size());
+    assertEquals(List.copyOf(t), List.copyOf(b));
+
+    final var c = IntervalTree.<Long>fromSorted(
+      new LinkedList<>(sorted).iterator()
+    );
+    assertEquals(List.copyOf(t), List.copyOf(c));
+
+    for (final var x : xs) {
+      assertEquals(
+        List.copyOf(t.overlapping(x)),
+        List.copyOf(b.overlapping(x))
+      );
+      assertEquals(t.countOverlapping(x), b.countOverlapping(x));
+    }
+
+    for (final var x : sorted) {
+      assertTrue(b.remove(x));
+    }
+    assertTrue(b.isEmpty());
+  }
+
+  /**
+   * Trees built from unsorted input contain each distinct element exactly
+   * once.
+   *
+   * @param xs The elements
+   */
+
+  @Property
+  public void testFromUnsorted(
+    final @ForAll("intervals") List<IntervalL> xs)
+  {
+    final var withDuplicates = new ArrayList<IntervalL>(xs);
+    withDuplicates.addAll(xs);
+
+    final var b = IntervalTree.<Long>fromUnsorted(withDuplicates);
+    b.enableInternalValidation(true);
+    assertEquals(List.copyOf(new TreeSet<>(xs)), List.copyOf(b));
+
+    for (final var x : xs) {
+      assertFalse(b.insert(x));
+    }
+
+    /*
+     * The tree remains usable for ordinary insertions.
+     */
+
+    final var extra = new IntervalL(Long.MIN_VALUE, Long.MIN_VALUE);
+    final var present = xs.contains(extra);
+    final var size = b.size();
+    assertEquals(!present, b.insert(extra));
+    assertTrue(b.find(extra));
+    assertEquals(present ? size : size + 1, b.size());
+  }
+
+  /**
+   * Unsorted or duplicated input is rejected by the sorted factories.
+   */
+
+  @Test
+  public void testFromSortedRejects()
+  {
+    final var a = new IntervalL(0L, 1L);
+    final var b = new IntervalL(2L, 3L);
+
+    assertTrue(IntervalTree.<Long>fromSorted(List.of()).isEmpty());
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> IntervalTree.<Long>fromSorted(List.of(b, a))
+    );
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> IntervalTree.<Long>fromSorted(List.of(a, a))
+    );
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> IntervalTree.<Long>fromSorted(List.<IntervalL>of(a, b, a).iterator())
+    );
+  }
+
+  /**
+   * Adding a batch to a tree has the same result as adding the elements
+   * individually, regardless of whether the batch is merged by insertion or
+   * by rebuilding, and publishes a single event.
+   *
+   * @param xs The existing elements
+   * @param ys The batch
+   */
+
+  @Property
+  public void testAddAllBatch(
+    final @ForAll("intervals") List<IntervalL> xs,
+    final @ForAll("intervals") List<IntervalL> ys)
+  {
+    final var big = new ArrayList<IntervalL>(xs);
+    for (long index = 0L; index < 1000L; ++index) {
+      big.add(new IntervalL(index * 3L, index * 3L + 7L));
+    }
+
+    for (final var existing : List.of(xs, big)) {
+      final var t = this.create();
+      final var expected = new TreeSet<IntervalL>();
+      for (final var x : existing) {
+        t.add(x);
+        expected.add(x);
+      }
+
+      final var changes = new ArrayList<IntervalTreeChangeType<Long>>();
+      t.setChangeListener(c -> {
+        changes.add(c);
+        return kotlin.Unit.INSTANCE;
+      });
+
+      final var added = new TreeSet<IntervalL>(ys);
+      added.removeAll(expected);
+      expected.addAll(ys);
+
+      assertEquals(!added.isEmpty(), t.addAll(List.copyOf(ys)));
+      assertEquals(expected.size(), t.size());
+      assertEquals(List.copyOf(expected), List.copyOf(t));
+
+      if (added.isEmpty()) {
+        assertEquals(List.of(), changes);
+      } else {
+        assertEquals(1, changes.size());
+        final var batch =
+          (IntervalTreeChangeType.BatchInserted<Long>) changes.get(0);
+        assertEquals(List.copyOf(added), batch.getIntervals());
+      }
+
+      for (final var x : expected) {
+        assertTrue(t.remove(x));
+      }
+      assertTrue(t.isEmpty());
+    }
+  }
+
+  /**
+   * Splitting a tree partitions the elements at the key, and joining the
+   * two halves restores the original tree.
+   *
+   * @param xs The elements
+   * @param ys The keys
+   */
+
+  @Property
+  public void testSplitJoin(
+    final @ForAll("intervals") List<IntervalL> xs,
+    final @ForAll("intervals") List<IntervalL> ys)
+  {
+    final var keys = new ArrayList<Long>();
+    keys.add(Long.MIN_VALUE);
+    keys.add(Long.MAX_VALUE);
+    for (final var x : xs) {
+      keys.add(x.getLower());
+    }
+    for (final var y : ys) {
+      keys.add(y.getLower());
+    }
+
+    final var expected = List.copyOf(new TreeSet<>(xs));
+    for (final var key : keys) {
+      final var t = IntervalTree.<Long>fromSorted(expected);
+      t.enableInternalValidation(true);
+
+      final var changes = new ArrayList<IntervalTreeChangeType<Long>>();
+      t.setChangeListener(c -> {
+        changes.add(c);
+        return kotlin.Unit.INSTANCE;
+      });
+
+      final var split = t.split(key);
+      assertTrue(t.isEmpty());
+
+      final var below = split.getBelow();
+      final var above = split.getAbove();
+      for (final var x : below) {
+        assertTrue(x.lower() < key);
+      }
+      for (final var x : above) {
+        assertTrue(x.lower() >= key);
+      }
+      assertEquals(
+        List.of(new IntervalTreeChangeType.Split<>(key, below.size(), above.size())),
+        changes
+      );
+
+      final var all = new ArrayList<>(below);
+      all.addAll(above);
+      assertEquals(expected, all);
+
+      for (final var x : below) {
+        assertEquals(
+          List.copyOf(below.overlapping(x)),
+          expected.stream()
+            .filter(y -> y.overlaps(x) && y.lower() < key)
+            .collect(Collectors.toList())
+        );
+      }
+
+      changes.clear();
+      final var aboveChanges = new ArrayList<IntervalTreeChangeType<Long>>();
+      above.setChangeListener(c -> {
+        aboveChanges.add(c);
+        return kotlin.Unit.INSTANCE;
+      });
+
+      final var belowSize = below.size();
+      final var aboveSize = above.size();
+      final var joined = IntervalTree.join(below, above);
+      assertTrue(below.isEmpty());
+      assertTrue(above.isEmpty());
+      assertEquals(expected, List.copyOf(joined));
+      assertEquals(
+        List.of(new IntervalTreeChangeType.Joined<>(belowSize, aboveSize)),
+        changes
+      );
+      assertEquals(
+        List.of(new IntervalTreeChangeType.Joined<>(belowSize, aboveSize)),
+        aboveChanges
+      );
+
+      for (final var x : expected) {
+        assertEquals(
+          expected.stream()
+            .filter(y -> y.overlaps(x))
+            .collect(Collectors.toList()),
+          List.copyOf(joined.overlapping(x))
+        );
+      }
+      for (final var x : expected) {
+        assertTrue(joined.remove(x));
+      }
+    }
+  }
+
+  /**
+   * Trees of very different heights can be joined.
+   */
+
+  @Test
+  public void testJoinUneven()
+  {
+    for (int size = 0; size < 200; ++size) {
+      final var left = new ArrayList<IntervalL>();
+      for (long index = 0L; index < size; ++index) {
+        left.add(new IntervalL(index, index + 10L));
+      }
+
+      final var a = IntervalTree.<Long>fromSorted(left);
+      final var b = IntervalTree.<Long>fromSorted(
+        List.of(new IntervalL(1000L, 1001L))
+      );
+      a.enableInternalValidation(true);
+
+      final var c = IntervalTree.join(a, b);
+      final var d = IntervalTree.join(
+        IntervalTree.fromSorted(List.of(new IntervalL(-1L, 2000L))),
+        c
+      );
+      d.enableInternalValidation(true);
+      assertEquals(size + 2, d.size());
+      assertEquals(size + 2, d.countOverlapping(new IntervalL(1000L, 1000L)) + size);
+      assertTrue(d.remove(new IntervalL(-1L, 2000L)));
+      assertEquals(1, d.countOverlapping(new IntervalL(1000L, 1000L)));
+    }
+  }
+
+  /**
+   * Overlapping trees cannot be joined.
+   */
+
+  @Test
+  public void testJoinRejects()
+  {
+    final var a = IntervalTree.<Long>fromSorted(
+      List.of(new IntervalL(0L, 1L), new IntervalL(2L, 3L))
+    );
+    final var b = IntervalTree.<Long>fromSorted(
+      List.of(new IntervalL(1L, 1L))
+    );
+
+    assertThrows(IllegalArgumentException.class, () -> IntervalTree.join(a, b));
+    assertThrows(IllegalArgumentException.class, () -> IntervalTree.join(a, a));
+    assertEquals(2, a.size());
+    assertEquals(1, b.size());
+  }
+
+  /**
+   * Batches large enough to be divided across several tasks return exactly
+   * what the individual queries return.
+   */
+
+  @Test
+  public void testOverlappingBatchLarge()
+  {
+    final var random = new Random(0x6b616273L);
+    final var t = IntervalTree.<Long>empty();
+    for (int index = 0; index < 10000; ++index) {
+      final long lower = random.nextInt(100000);
+      t.insert(new IntervalL(lower, lower + random.nextInt(1000)));
+    }
+
+    final var queries = new ArrayList<IntervalType<Long>>();
+    for (int index = 0; index < 5000; ++index) {
+      final long lower = random.nextInt(110000) - 5000L;
+      queries.add(new IntervalL(lower, lower + random.nextInt(100)));
+    }
+
+    final var pool = new ForkJoinPool(4);
+    try {
+      final var results = t.overlappingBatch(queries, pool);
+      assertEquals(queries.size(), results.size());
+      for (int index = 0; index < queries.size(); ++index) {
+        assertEquals(
+          List.copyOf(t.overlapping(queries.get(index))),
+          List.copyOf(results.get(index))
+        );
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Removing ranges from a large tree removes exactly the matching
+   * intervals, including the intervals that begin before the range and
+   * reach into it, and publishes a single event for each removal. The
+   * first tree has few such intervals and the second has many, so both
+   * of the ways of removing them are exercised.
+   */
+
+  @Test
+  public void testRemoveRangeLarge()
+  {
+    final var sparse = IntervalTree.<Long>empty();
+    final var dense = IntervalTree.<Long>empty();
+    for (int index = 0; index < 20000; ++index) {
+      sparse.insert(new IntervalL(index, index));
+      dense.insert(new IntervalL(index, index + 1));
+      if (index % 1000 == 0) {
+        sparse.insert(new IntervalL(index, index + 5000L));
+      }
+      if (index < 2000) {
+        dense.insert(new IntervalL(index, 20000L));
+      }
+    }
+
+    final var queries = List.of(
+      new IntervalL(8000L, 9000L),
+      new IntervalL(2500L, 4000L),
+      new IntervalL(0L, 10L),
+      new IntervalL(19990L, 30000L),
+      new IntervalL(12000L, 12000L)
+    );
+
+    for (final var t : List.of(sparse, dense)) {
+      t.enableInternalValidation(true);
+      final var events = new ArrayList<IntervalTreeChangeType<Long>>();
+      t.setChangeListener(c -> {
+        events.add(c);
+        return kotlin.Unit.INSTANCE;
+      });
+
+      for (final var q : queries) {
+        final var contained = new ArrayList<IntervalType<Long>>();
+        final var overlapping = new ArrayList<IntervalType<Long>>();
+        for (final var x : t) {
+          if (q.lower() <= x.lower() && x.upper() <= q.upper()) {
+            contained.add(x);
+          } else if (q.overlaps(x)) {
+            overlapping.add(x);
+          }
+        }
+        final var size = t.size();
+
+        events.clear();
+        assertEquals(contained.size(), t.removeContainedIn(q));
+        assertEquals(size - contained.size(), t.size());
+        if (contained.isEmpty()) {
+          assertEquals(List.of(), events);
+        } else {
+          assertEquals(
+            List.of(
+              new IntervalTreeChangeType.BatchDeleted<>("ContainedIn", contained)
+            ),
+            events
+          );
+        }
+        assertEquals(overlapping, List.copyOf(t.overlapping(q)));
+
+        events.clear();
+        assertEquals(overlapping.size(), t.removeOverlapping(q));
+        assertEquals(size - contained.size() - overlapping.size(), t.size());
+        assertFalse(t.anyOverlapping(q));
+        assertEquals(List.copyOf(new TreeSet<>(t)), List.copyOf(t));
+        if (overlapping.isEmpty()) {
+          assertEquals(List.of(), events);
+        } else {
+          assertEquals(
+            List.of(
+              new IntervalTreeChangeType.BatchDeleted<>("Overlapping", overlapping)
+            ),
+            events
+          );
+        }
+      }
+    }
+  }
+
+  /**
+   * Spliterators split by rank into exactly sized halves that together
+   * cover the tree in order, and streams (sequential or parallel) see the
+   * intervals in order.
+   *
+   * @param xs The elements
+   */
+
+  @Property
+  public void testSpliterator(
+    final @ForAll("intervals") List<IntervalL> xs)
+  {
+    final var t = IntervalTree.<Long>fromUnsorted(xs);
+    final var expected = List.copyOf(t);
+
+    final var spliterator = t.spliterator();
+    assertEquals(
+      Spliterator.SIZED
+        | Spliterator.SUBSIZED
+        | Spliterator.ORDERED
+        | Spliterator.SORTED
+        | Spliterator.DISTINCT
+        | Spliterator.NONNULL,
+      spliterator.characteristics()
+    );
+    assertNull(spliterator.getComparator());
+    assertEquals(expected.size(), spliterator.getExactSizeIfKnown());
+
+    final var received = new ArrayList<IntervalType<Long>>();
+    if (spliterator.tryAdvance(received::add)) {
+      final var prefix = spliterator.trySplit();
+      if (prefix != null) {
+        final var prefixSize = prefix.estimateSize();
+        prefix.forEachRemaining(received::add);
+        assertEquals(prefixSize + 1L, received.size());
+      }
+    }
+    spliterator.forEachRemaining(received::add);
+    assertFalse(spliterator.tryAdvance(received::add));
+    assertEquals(0L, spliterator.estimateSize());
+    assertEquals(expected, received);
+
+    assertEquals(expected, t.stream().collect(Collectors.toList()));
+    assertEquals(expected, t.parallelStream().collect(Collectors.toList()));
+    assertEquals(
+      expected.stream().sorted().collect(Collectors.toList()),
+      t.parallelStream().sorted().collect(Collectors.toList())
+    );
+  }
+
+  /**
+   * Every split of a spliterator over a large tree is exactly sized, and
+   * the leaves cover the tree in order.
+   */
+
+  @Test
+  public void testSpliteratorSplitsExactly()
+  {
+    final var xs = new ArrayList<IntervalL>();
+    for (long index = 0L; index < 1000L; ++index) {
+      xs.add(new IntervalL(index, index + 3L));
+    }
+    final var t = IntervalTree.<Long>fromSorted(xs);
+
+    final var received = new ArrayList<IntervalType<Long>>();
+    this.splitFully(t.spliterator(), received);
+    assertEquals(xs, received);
+  }
+
+  private void splitFully(
+    final Spliterator<IntervalType<Long>> spliterator,
+    final List<IntervalType<Long>> received)
+  {
+    final var size = spliterator.estimateSize();
+    final var prefix = spliterator.trySplit();
+    if (prefix == null) {
+      assertTrue(size <= 1L);
+      spliterator.forEachRemaining(received::add);
+      return;
+    }
+
+    assertEquals(size, prefix.estimateSize() + spliterator.estimateSize());
+    assertTrue(
+      Math.abs(prefix.estimateSize() - spliterator.estimateSize()) <= 1L
+    );
+    this.splitFully(prefix, received);
+    this.splitFully(spliterator, received);
+  }
+
+  /**
+   * Spliterators fail fast if the tree is modified.
+   */
+
+  @Test
+  public void testSpliteratorConcurrentModification()
+  {
+    final var t = this.create();
+    t.insert(new IntervalL(0L, 1L));
+    t.insert(new IntervalL(2L, 3L));
+
+    final var spliterator = t.spliterator();
+    assertTrue(spliterator.tryAdvance(x -> { }));
+    t.insert(new IntervalL(4L, 5L));
+    assertThrows(
+      ConcurrentModificationException.class,
+      () -> spliterator.tryAdvance(x -> { })
+    );
+    assertThrows(
+      ConcurrentModificationException.class,
+      () -> spliterator.forEachRemaining(x -> { })
+    );
+    assertThrows(
+      ConcurrentModificationException.class,
+      spliterator::trySplit
+    );
+  }
 }
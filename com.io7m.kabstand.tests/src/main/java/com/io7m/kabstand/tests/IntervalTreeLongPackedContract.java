@@ -0,0 +1,169 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com\> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.tests;
+
+import com.io7m.kabstand.core.IntervalL;
+import com.io7m.kabstand.core.IntervalTreeLongPacked;
+import com.io7m.kabstand.core.IntervalType;
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.Provide;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for packed interval trees specialized to long values, independent
+ * of the node store.
+ */
+
+public abstract class IntervalTreeLongPackedContract
+  extends IntervalTreePrimitiveContract<IntervalL, Long, IntervalTreeLongPacked>
+{
+  @Override
+  protected IntervalL interval(
+    final long lower,
+    final long upper)
+  {
+    return new IntervalL(lower, upper);
+  }
+
+  @Override
+  protected IntervalL point(
+    final Long point)
+  {
+    return new IntervalL(point, point);
+  }
+
+  @Provide
+  public Arbitrary<List<IntervalL>> intervals()
+  {
+    return Arbitraries.defaultFor(IntervalL.class)
+      .list();
+  }
+
+  @Override
+  protected abstract IntervalTreeLongPacked create();
+
+  /**
+   * Closed trees cannot be used.
+   */
+
+  @Test
+  public void testClosed()
+  {
+    final var t = this.create();
+    assertTrue(t.insert(0L, 10L));
+    t.close();
+    t.close();
+
+    assertThrows(IllegalStateException.class, () -> t.insert(0L, 10L));
+    assertThrows(IllegalStateException.class, () -> t.find(0L, 10L));
+    assertThrows(IllegalStateException.class, () -> t.overlapping(0L, 10L));
+  }
+
+  /**
+   * Storage released by removals is reused.
+   */
+
+  @Test
+  public void testStorageReused()
+  {
+    final var t = this.create();
+    for (int round = 0; round < 10; ++round) {
+      for (long index = 0L; index < 1000L; ++index) {
+        assertTrue(t.insert(index, index + 10L));
+      }
+      assertEquals(1000, t.size());
+      for (long index = 0L; index < 1000L; ++index) {
+        assertTrue(t.remove(index, index + 10L));
+      }
+      assertTrue(t.isEmpty());
+    }
+  }
+
+  @Override
+  protected PrimitiveOverloads<Long> primitive(
+    final IntervalTreeLongPacked tree)
+  {
+    return new PrimitiveOverloads<>()
+    {
+      @Override
+      public boolean insert(
+        final Long lower,
+        final Long upper)
+      {
+        return tree.insert(lower, upper);
+      }
+
+      @Override
+      public boolean remove(
+        final Long lower,
+        final Long upper)
+      {
+        return tree.remove(lower, upper);
+      }
+
+      @Override
+      public boolean find(
+        final Long lower,
+        final Long upper)
+      {
+        return tree.find(lower, upper);
+      }
+
+      @Override
+      public Collection<IntervalType<Long>> overlapping(
+        final Long lower,
+        final Long upper)
+      {
+        return tree.overlapping(lower, upper);
+      }
+
+      @Override
+      public boolean forEachOverlappingWhile(
+        final Long lower,
+        final Long upper,
+        final BiPredicate<Long, Long> visitor)
+      {
+        return tree.forEachOverlappingWhile(lower, upper, visitor::test);
+      }
+
+      @Override
+      public int countOverlapping(
+        final Long lower,
+        final Long upper)
+      {
+        return tree.countOverlapping(lower, upper);
+      }
+
+      @Override
+      public boolean anyOverlapping(
+        final Long lower,
+        final Long upper)
+      {
+        return tree.anyOverlapping(lower, upper);
+      }
+    };
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com\> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.tests;
+
+import com.io7m.kabstand.core.IntervalTreeLongPacked;
+import com.io7m.kabstand.core.IntervalL;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for off-heap packed interval trees specialized to long values.
+ */
+
+public final class IntervalTreeLongPackedOffHeapTest
+  extends IntervalTreeLongPackedContract
+{
+  @Override
+  protected IntervalTreeLongPacked create()
+  {
+    final var t = IntervalTreeLongPacked.offHeap(3);
+    t.enableInternalValidation(true);
+    return t;
+  }
+
+  /**
+   * Nodes are allocated across chunk boundaries, and the tree remains
+   * consistent as each new chunk is added.
+   */
+
+  @Test
+  public void testChunkGrowth()
+  {
+    final var t = this.create();
+    final var expected = new ArrayList<IntervalL>();
+
+    /*
+     * Chunks hold four records; the tree crosses a chunk boundary on
+     * every fourth insertion.
+     */
+
+    for (long index = 0L; index < 64L; ++index) {
+      final var x = new IntervalL(index * 10L, index * 10L + 15L);
+      assertTrue(t.insert(x));
+      expected.add(x);
+      assertEquals(expected, List.copyOf(t));
+      assertEquals(
+        List.of(x),
+        List.copyOf(t.overlapping(index * 10L + 12L, index * 10L + 12L))
+      );
+    }
+  }
+
+  /**
+   * Nodes released from many different chunks are threaded onto a single
+   * free list, and are reused correctly by later insertions.
+   */
+
+  @Test
+  public void testFreeListSpansChunks()
+  {
+    final var t = this.create();
+    final var expected = new TreeSet<IntervalL>();
+    for (long index = 0L; index < 64L; ++index) {
+      final var x = new IntervalL(index, index);
+      assertTrue(t.insert(x));
+      expected.add(x);
+    }
+
+    /*
+     * Release every third node, so that the free list alternates between
+     * chunks, and then reuse exactly those nodes.
+     */
+
+    for (long index = 0L; index < 64L; index += 3L) {
+      final var x = new IntervalL(index, index);
+      assertTrue(t.remove(x));
+      expected.remove(x);
+    }
+    assertEquals(List.copyOf(expected), List.copyOf(t));
+
+    for (long index = 1000L; index < 1022L; ++index) {
+      final var x = new IntervalL(index, index);
+      assertTrue(t.insert(x));
+      expected.add(x);
+    }
+    assertEquals(List.copyOf(expected), List.copyOf(t));
+
+    for (final var x : expected) {
+      assertEquals(
+        List.of(x),
+        List.copyOf(t.overlapping(x.getLower(), x.getLower()))
+      );
+    }
+
+    for (final var x : List.copyOf(expected)) {
+      assertTrue(t.remove(x));
+      expected.remove(x);
+      assertEquals(List.copyOf(expected), List.copyOf(t));
+    }
+    assertTrue(t.isEmpty());
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com\> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.tests;
+
+import com.io7m.kabstand.core.IntervalL;
+import com.io7m.kabstand.core.IntervalTreeLong;
+import com.io7m.kabstand.core.IntervalType;
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.Provide;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * Tests for interval trees specialized to long values.
+ */
+
+public final class IntervalTreeLongTest
+  extends IntervalTreePrimitiveContract<IntervalL, Long, IntervalTreeLong>
+{
+  @Override
+  protected IntervalL interval(
+    final long lower,
+    final long upper)
+  {
+    return new IntervalL(lower, upper);
+  }
+
+  @Override
+  protected IntervalL point(
+    final Long point)
+  {
+    return new IntervalL(point, point);
+  }
+
+  @Provide
+  public Arbitrary<List<IntervalL>> intervals()
+  {
+    return Arbitraries.defaultFor(IntervalL.class)
+      .list();
+  }
+
+  @Override
+  protected IntervalTreeLong create()
+  {
+    final var t = IntervalTreeLong.empty();
+    t.enableInternalValidation(true);
+    return t;
+  }
+
+  @Override
+  protected PrimitiveOverloads<Long> primitive(
+    final IntervalTreeLong tree)
+  {
+    return new PrimitiveOverloads<>()
+    {
+      @Override
+      public boolean insert(
+        final Long lower,
+        final Long upper)
+      {
+        return tree.insert(lower, upper);
+      }
+
+      @Override
+      public boolean remove(
+        final Long lower,
+        final Long upper)
+      {
+        return tree.remove(lower, upper);
+      }
+
+      @Override
+      public boolean find(
+        final Long lower,
+        final Long upper)
+      {
+        return tree.find(lower, upper);
+      }
+
+      @Override
+      public Collection<IntervalType<Long>> overlapping(
+        final Long lower,
+        final Long upper)
+      {
+        return tree.overlapping(lower, upper);
+      }
+
+      @Override
+      public boolean forEachOverlappingWhile(
+        final Long lower,
+        final Long upper,
+        final BiPredicate<Long, Long> visitor)
+      {
+        return tree.forEachOverlappingWhile(lower, upper, visitor::test);
+      }
+
+      @Override
+      public int countOverlapping(
+        final Long lower,
+        final Long upper)
+      {
+        return tree.countOverlapping(lower, upper);
+      }
+
+      @Override
+      public boolean anyOverlapping(
+        final Long lower,
+        final Long upper)
+      {
+        return tree.anyOverlapping(lower, upper);
+      }
+    };
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com\> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.kabstand.tests;
+
+import com.io7m.kabstand.core.IntervalTreeDebuggableType;
+import com.io7m.kabstand.core.IntervalType;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for interval trees specialized to primitive bounds. The primitive
+ * overloads of each tree are reached through a {@link PrimitiveOverloads}
+ * adapter, so that the same tests cover every specialized tree.
+ *
+ * @param <I> The type of intervals
+ * @param <S> The type of scalar values
+ * @param <T> The type of trees
+ */
+
+public abstract class IntervalTreePrimitiveContract<
+  I extends IntervalType<S>,
+  S extends Comparable<S>,
+  T extends IntervalTreeDebuggableType<S>>
+  extends IntervalTreeContract<I, S>
+{
+  /**
+   * The overloads of a specialized tree that take primitive bounds.
+   *
+   * @param <S> The type of scalar values
+   */
+
+  protected interface PrimitiveOverloads<S extends Comparable<S>>
+  {
+    boolean insert(S lower, S upper);
+
+    boolean remove(S lower, S upper);
+
+    boolean find(S lower, S upper);
+
+    Collection<IntervalType<S>> overlapping(S lower, S upper);
+
+    boolean forEachOverlappingWhile(
+      S lower,
+      S upper,
+      BiPredicate<S, S> visitor);
+
+    int countOverlapping(S lower, S upper);
+
+    boolean anyOverlapping(S lower, S upper);
+  }
+
+  @Override
+  protected abstract T create();
+
+  protected abstract PrimitiveOverloads<S> primitive(T tree);
+
+  /**
+   * The tree copies the bounds of inserted intervals into primitive
+   * storage, and never consults the interval objects afterwards.
+   */
+
+  @Override
+  protected final boolean retainsIntervals()
+  {
+    return false;
+  }
+
+  /**
+   * The primitive overloads are equivalent to the interval overloads.
+   *
+   * @param xs The elements
+   */
+
+  @Property
+  public final void testPrimitiveOverloads(
+    final @ForAll("intervals") List<I> xs)
+  {
+    final var t = this.create();
+    final var p = this.primitive(t);
+    final var inserted = new HashSet<I>();
+
+    for (final var x : xs) {
+      assertEquals(inserted.add(x), p.insert(x.lower(), x.upper()));
+      assertTrue(p.find(x.lower(), x.upper()));
+    }
+
+    for (final var x : inserted) {
+      final var expected = List.copyOf(t.overlapping(x));
+      assertEquals(
+        expected,
+        List.copyOf(p.overlapping(x.lower(), x.upper()))
+      );
+
+      final var visited = new ArrayList<List<S>>();
+      assertTrue(
+        p.forEachOverlappingWhile(
+          x.lower(),
+          x.upper(),
+          (lower, upper) -> visited.add(List.of(lower, upper))
+        )
+      );
+      assertEquals(
+        expected.stream()
+          .map(y -> List.of(y.lower(), y.upper()))
+          .collect(Collectors.toList()),
+        visited
+      );
+      assertEquals(visited.size(), p.countOverlapping(x.lower(), x.upper()));
+      assertTrue(p.anyOverlapping(x.lower(), x.upper()));
+      assertEquals(
+        List.copyOf(p.overlapping(x.upper(), x.upper())),
+        List.copyOf(t.stabbing(x.upper()))
+      );
+    }
+
+    for (final var x : inserted) {
+      assertTrue(p.remove(x.lower(), x.upper()));
+      assertFalse(p.remove(x.lower(), x.upper()));
+      assertFalse(p.find(x.lower(), x.upper()));
+    }
+    assertTrue(t.isEmpty());
+  }
+
+  /**
+   * Queries with an upper bound less than the lower bound are rejected.
+   */
+
+  @Test
+  public final void testInvertedQueryRejected()
+  {
+    final var t = this.create();
+    final var p = this.primitive(t);
+    t.insert(this.interval(0L, 10L));
+
+    final var lower = this.interval(1L, 1L).lower();
+    final var upper = this.interval(0L, 0L).lower();
+    assertThrows(
+      IllegalStateException.class,
+      () -> p.overlapping(lower, upper)
+    );
+    assertThrows(
+      IllegalStateException.class,
+      () -> p.anyOverlapping(lower, upper)
+    );
+    assertThrows(
+      IllegalStateException.class,
+      () -> p.countOverlapping(lower, upper)
+    );
+    assertThrows(
+      IllegalStateException.class,
+      () -> p.forEachOverlappingWhile(lower, upper, (x, y) -> true)
+    );
+  }
+
+  /**
+   * Iterators fail fast if the tree is modified.
+   */
+
+  @Test
+  public final void testIteratorConcurrentModification()
+  {
+    final var t = this.create();
+    t.insert(this.interval(0L, 1L));
+    t.insert(this.interval(2L, 3L));
+
+    final var iter = t.iterator();
+    assertEquals(this.interval(0L, 1L), iter.next());
+    t.insert(this.interval(4L, 5L));
+    assertThrows(ConcurrentModificationException.class, iter::hasNext);
+    assertThrows(ConcurrentModificationException.class, iter::next);
+  }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.tests;
+
+import com.io7m.kabstand.core.IntervalL;
+import com.io7m.kabstand.core.IntervalTreeChangeType;
+import com.io7m.kabstand.core.IntervalTreeSharded;
+import kotlin.Unit;
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for sharded interval indexes.
+ */
+
+public final class IntervalTreeShardedTest
+  extends IntervalTreeContract<IntervalL, Long>
+{
+  @Override
+  protected IntervalL interval(
+    final long lower,
+    final long upper)
+  {
+    return new IntervalL(lower, upper);
+  }
+
+  @Override
+  protected IntervalL point(
+    final Long point)
+  {
+    return new IntervalL(point, point);
+  }
+
+  @Provide
+  public Arbitrary<List<IntervalL>> intervals()
+  {
+    return Arbitraries.defaultFor(IntervalL.class)
+      .list();
+  }
+
+  @Override
+  protected IntervalTreeSharded<Long> create()
+  {
+    final var t =
+      IntervalTreeSharded.create(List.of(-1000L, 0L, 1000L));
+    t.enableInternalValidation(true);
+    return t;
+  }
+
+  /**
+   * Rebalancing preserves the contents of the index, and spreads the
+   * intervals evenly across the shards.
+   *
+   * @param xs The elements
+   */
+
+  @Property
+  public void testRebalance(
+    final @ForAll("intervals") List<IntervalL> xs)
+  {
+    final var t = this.create();
+    final var unique = new TreeSet<>(xs);
+    t.addAll(xs);
+    t.rebalance();
+
+    assertEquals(List.copyOf(unique), List.copyOf(t));
+    assertTrue(t.shardSizes().size() <= 4);
+    assertEquals(t.boundaries().size() + 1, t.shardSizes().size());
+    checkBoundariesIncreasing(t.boundaries());
+    assertEquals(unique.size(), t.size());
+
+    var total = 0;
+    for (final var size : t.shardSizes()) {
+      total += size;
+    }
+    assertEquals(unique.size(), total);
+
+    for (final var x : unique) {
+      assertEquals(
+        unique.stream()
+          .filter(y -> y.overlaps(x))
+          .collect(Collectors.toList()),
+        List.copyOf(t.overlapping(x))
+      );
+    }
+    for (final var x : unique) {
+      assertTrue(t.remove(x));
+    }
+    assertTrue(t.isEmpty());
+  }
+
+  /**
+   * Shards that become overloaded trigger a rebalance.
+   */
+
+  @Test
+  public void testRebalanceAutomatic()
+  {
+    final var t = this.create();
+    final var boundaries = t.boundaries();
+
+    for (long index = 0L; index < 8192L; ++index) {
+      t.insert(new IntervalL(index, index + 10L));
+    }
+
+    assertNotEquals(boundaries, t.boundaries());
+    for (final var size : t.shardSizes()) {
+      assertTrue(size <= 4096, "Shard size " + size);
+    }
+    assertEquals(8192, t.size());
+    assertEquals(21, t.countOverlapping(new IntervalL(4000L, 4010L)));
+  }
+
+  private static void checkBoundariesIncreasing(
+    final List<Long> boundaries)
+  {
+    for (int index = 1; index < boundaries.size(); ++index) {
+      assertTrue(
+        boundaries.get(index - 1) < boundaries.get(index),
+        String.format("Boundaries %s must be increasing", boundaries)
+      );
+    }
+  }
+
+  /**
+   * A shard is checked for overload after a number of insertions, even if
+   * removals mean that its size never reaches any particular value.
+   */
+
+  @Test
+  public void testRebalanceAlternating()
+  {
+    final var t = this.create();
+    t.enableInternalValidation(false);
+    final var boundaries = t.boundaries();
+
+    for (long index = 0L; index < 1000L; ++index) {
+      t.insert(new IntervalL(-2000L - index, -2000L - index));
+      t.insert(new IntervalL(index, index));
+    }
+    assertEquals(boundaries, t.boundaries());
+
+    t.removeOverlapping(new IntervalL(-1000L, 2000L));
+    assertEquals(List.of(1000, 0, 0, 0), t.shardSizes());
+
+    final var x = new IntervalL(-5000L, -5000L);
+    for (int index = 0; index < 1024; ++index) {
+      assertTrue(t.insert(x));
+      assertTrue(t.remove(x));
+    }
+
+    assertNotEquals(boundaries, t.boundaries());
+    checkBoundariesIncreasing(t.boundaries());
+    assertEquals(1000, t.size());
+  }
+
+  /**
+   * Intervals that share a lower bound cannot be divided between shards.
+   * Rebalancing never produces duplicate boundaries, and a shard that no
+   * rebalance can reduce does not cause a rebalance on every check.
+   */
+
+  @Test
+  public void testRebalanceDuplicateLowerBounds()
+  {
+    final var t = this.create();
+    t.enableInternalValidation(false);
+
+    final var joins = new AtomicInteger();
+    t.setChangeListener(change -> {
+      if (change instanceof IntervalTreeChangeType.Joined) {
+        joins.incrementAndGet();
+      }
+      return Unit.INSTANCE;
+    });
+
+    for (long index = 0L; index < 32768L; ++index) {
+      t.insert(new IntervalL(5L, 5L + index));
+      if (index % 4L == 0L) {
+        t.insert(new IntervalL(index, index));
+      }
+    }
+
+    checkBoundariesIncreasing(t.boundaries());
+    assertEquals(32768 + 8192, t.size());
+    assertEquals(32768, t.stabbing(5L).size());
+    /*
+     * Each rebalance of four shards performs three joins. The shard that
+     * holds the duplicated lower bound cannot be reduced, and so it is
+     * only rebalanced each time it doubles in size, rather than on every
+     * one of the 32 checks.
+     */
+
+    final var rebalances = joins.get() / 3;
+    assertTrue(rebalances > 0);
+    assertTrue(rebalances <= 8, "Rebalances " + rebalances);
+
+    t.rebalance();
+    t.rebalance();
+    checkBoundariesIncreasing(t.boundaries());
+    assertEquals(32768 + 8192, t.size());
+
+    final var same = this.create();
+    for (long index = 0L; index < 4096L; ++index) {
+      same.insert(new IntervalL(7L, 7L + index));
+    }
+    same.rebalance();
+    checkBoundariesIncreasing(same.boundaries());
+    assertEquals(List.of(7L), same.boundaries());
+    assertEquals(List.of(0, 4096), same.shardSizes());
+  }
+
+  /**
+   * Boundaries must be strictly increasing.
+   */
+
+  @Test
+  public void testBoundariesOrdered()
+  {
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> IntervalTreeSharded.create(List.of(1L, 1L))
+    );
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> IntervalTreeSharded.create(List.of(2L, 1L))
+    );
+  }
+
+  /**
+   * Writers and readers running concurrently, along with rebalancing,
+   * never lose or duplicate intervals.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testConcurrentWriters()
+    throws Exception
+  {
+    final var t = this.create();
+    t.enableInternalValidation(false);
+
+    final var executor = Executors.newFixedThreadPool(4);
+    try {
+      final var tasks = new ArrayList<Callable<Void>>();
+      for (int writer = 0; writer < 3; ++writer) {
+        final long base = writer * 100_000L;
+        tasks.add(() -> {
+          for (long index = 0L; index < 5000L; ++index) {
+            assertTrue(t.insert(new IntervalL(base + index, base + index)));
+          }
+          return null;
+        });
+      }
+      tasks.add(() -> {
+        for (int round = 0; round < 50; ++round) {
+          t.rebalance();
+          final var query = new IntervalL(0L, 1_000_000L);
+          final var found = t.overlapping(query);
+          assertEquals(found.size(), new TreeSet<>(found).size());
+        }
+        return null;
+      });
+
+      for (final var future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10L, TimeUnit.SECONDS));
+    }
+
+    assertEquals(15000, t.size());
+    assertEquals(15000, List.copyOf(t).size());
+    assertEquals(15000, t.countOverlapping(new IntervalL(0L, 1_000_000L)));
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.kabstand.tests;
+
+import com.io7m.kabstand.core.IntervalL;
+import com.io7m.kabstand.core.IntervalTreePersistent;
+import com.io7m.kabstand.core.IntervalTreeVersioned;
+import com.io7m.kabstand.core.IntervalType;
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for interval trees backed by persistent trees.
+ */
+
+public final class IntervalTreeVersionedTest
+  extends IntervalTreeContract<IntervalL, Long>
+{
+  @Override
+  protected IntervalL interval(
+    final long lower,
+    final long upper)
+  {
+    return new IntervalL(lower, upper);
+  }
+
+  @Override
+  protected IntervalL point(
+    final Long point)
+  {
+    return new IntervalL(point, point);
+  }
+
+  @Provide
+  public Arbitrary<List<IntervalL>> intervals()
+  {
+    return Arbitraries.defaultFor(IntervalL.class)
+      .list();
+  }
+
+  @Override
+  protected IntervalTreeVersioned<Long> create()
+  {
+    final var t = IntervalTreeVersioned.<Long>empty();
+    t.enableInternalValidation(true);
+    return t;
+  }
+
+  /**
+   * Snapshots are unaffected by later modifications, and can be restored.
+   *
+   * @param xs The elements
+   */
+
+  @Property
+  public void testSnapshots(
+    final @ForAll("intervals") List<IntervalL> xs)
+  {
+    final var t = this.create();
+    final var snapshots = new ArrayList<List<IntervalType<Long>>>();
+    final var versions = new ArrayList<IntervalTreePersistent<Long>>();
+
+    for (final var x : xs) {
+      versions.add(t.snapshot());
+      snapshots.add(List.copyOf(t));
+      t.insert(x);
+    }
+    for (final var x : xs) {
+      versions.add(t.snapshot());
+      snapshots.add(List.copyOf(t));
+      t.remove(x);
+    }
+    assertTrue(t.isEmpty());
+
+    for (int index = 0; index < versions.size(); ++index) {
+      final var version = versions.get(index);
+      assertEquals(snapshots.get(index), List.copyOf(version));
+      assertEquals(snapshots.get(index).size(), version.size());
+    }
+
+    final var all = List.copyOf(new TreeSet<>(xs));
+    if (!versions.isEmpty()) {
+      final var full = versions.get(xs.size());
+      t.restore(full);
+      assertSame(full, t.snapshot());
+      assertEquals(all, List.copyOf(t));
+    }
+  }
+}